@@ -0,0 +1,43 @@
+package org.vaadin.tatu;
+
+import java.util.Map;
+
+import org.vaadin.tatu.BeanTable.AggregateFunction;
+
+import com.vaadin.flow.data.provider.BackEndDataProvider;
+import com.vaadin.flow.data.provider.Query;
+
+/**
+ * Optional contract for back end data providers that can compute column
+ * aggregates, e.g. with a single SQL query using SUM, AVG, MIN, MAX and COUNT.
+ * <p>
+ * When the data provider of a BeanTable implements this interface, the
+ * aggregates of the footer row, see
+ * {@link BeanTable.Column#setAggregate(AggregateFunction)}, are fetched with
+ * {@link #fetchAggregates(Query, Map)} instead of fetching the rows. Only the
+ * columns with a key, e.g. the columns created by property name, can be
+ * aggregated in the back end.
+ *
+ * @author Tatu Lund
+ *
+ * @param <T>
+ *            Bean type
+ * @param <F>
+ *            Filter type
+ */
+public interface AggregateDataProvider<T, F> extends BackEndDataProvider<T, F> {
+
+    /**
+     * Compute the aggregates over all the items matching the filter of the
+     * query.
+     *
+     * @param query
+     *            The query with the filter, offset and limit are not used
+     * @param aggregates
+     *            Map from the column key to the aggregate function
+     * @return Map from the column key to the value, missing or null value is
+     *         shown as empty
+     */
+    Map<String, Number> fetchAggregates(Query<T, F> query,
+            Map<String, AggregateFunction> aggregates);
+}
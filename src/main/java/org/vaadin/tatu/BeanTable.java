@@ -1,13 +1,38 @@
 package org.vaadin.tatu;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
@@ -27,6 +52,7 @@ import com.vaadin.flow.component.HtmlComponent;
 import com.vaadin.flow.component.Tag;
 import com.vaadin.flow.component.Text;
 import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
 import com.vaadin.flow.component.button.Button;
 import com.vaadin.flow.component.button.ButtonVariant;
 import com.vaadin.flow.component.contextmenu.ContextMenu;
@@ -52,13 +78,18 @@ import com.vaadin.flow.data.provider.KeyMapper;
 import com.vaadin.flow.data.provider.ListDataProvider;
 import com.vaadin.flow.data.provider.Query;
 import com.vaadin.flow.data.provider.QuerySortOrder;
+import com.vaadin.flow.data.provider.SortDirection;
 import com.vaadin.flow.dom.DomListenerRegistration;
 import com.vaadin.flow.dom.Element;
 import com.vaadin.flow.function.SerializableBiFunction;
 import com.vaadin.flow.function.SerializableComparator;
 import com.vaadin.flow.function.SerializableConsumer;
+import com.vaadin.flow.function.SerializableFunction;
 import com.vaadin.flow.function.SerializablePredicate;
+import com.vaadin.flow.function.SerializableSupplier;
 import com.vaadin.flow.function.ValueProvider;
+import com.vaadin.flow.server.StreamResource;
+import com.vaadin.flow.server.VaadinSession;
 import com.vaadin.flow.shared.Registration;
 
 /**
@@ -91,7 +122,26 @@ public class BeanTable<T> extends HtmlComponent
         HasDataView<T, Void, BeanTableDataView<T>>,
         HasLazyDataView<T, Void, BeanTableLazyDataView<T>>, HasSize, HasTheme {
 
-    private final KeyMapper<T> keyMapper = new KeyMapper<>(this::getItemId);
+    private static final int MAX_BATCH_FETCH_SPAN = 100;
+    // Rough retained size of a state node of a rendered row with its features
+    private static final int ESTIMATED_BYTES_PER_NODE = 512;
+    // Rough retained size of an item id kept in compact mode
+    private static final int ESTIMATED_BYTES_PER_ID = 32;
+    // Items fetched per query when exporting
+    private static final int EXPORT_CHUNK_SIZE = 5000;
+    // Items fetched per query when computing the statistics
+    private static final int STATISTICS_CHUNK_SIZE = 5000;
+    // Results cached by a table in stale while revalidate mode
+    private static final int STALE_CACHE_SIZE = 20;
+    // Index of the row of the event target in the body element
+    // Package protected to enable unit testing
+    static final String ROW_INDEX = "(() => { let row = event.target;"
+            + " while (row && row.parentElement !== element) {"
+            + " row = row.parentElement; }"
+            + " return row ? Array.prototype.indexOf.call(element.children, row) : -1; })()";
+
+    private transient KeyMapper<T> keyMapper;
+    private IdentifierProvider<T> identifierProvider;
     private final AtomicReference<DataProvider<T, ?>> dataProvider = new AtomicReference<>(
             DataProvider.ofItems());
     private int lastNotifiedDataSize = -1;
@@ -104,19 +154,61 @@ public class BeanTable<T> extends HtmlComponent
     private PropertySet<T> propertySet;
     private int pageLength = -1;
     private int currentPage = 0;
+    private int renderedPage = -1;
+    private boolean resetPending;
+    private Duration progressiveTimeBudget;
+    private transient Executor progressiveExecutor;
+    private transient Stream<T> progressiveStream;
+    private transient Iterator<T> progressiveIterator;
+    private int coalescedResetCount;
+    private Duration refreshWindow;
+    private transient Map<Object, T> pendingRefreshes = new LinkedHashMap<>();
+    private volatile boolean refreshFlushPending;
+    private long lastRefreshFlush;
+    private int coalescedRefreshCount;
+    private transient Executor fetchExecutor;
+    private FetchPolicy fetchPolicy;
+    private transient PageCache pageCache;
+    private String providerId;
+    private Duration staleMaxAge;
+    private transient PageCache localPageCache;
+    private String localCacheId;
+    private transient boolean servedFromCache;
+    private transient FutureTask<Void> pendingFetch;
+    private transient FetchResult<T> fetchResult;
+    private volatile long fetchGeneration;
+    private int unpagedRowLimit = -1;
+    private RowLimitMode rowLimitMode = RowLimitMode.PAGED;
+    private boolean rowLimitExceeded;
+    private Object firstKey;
+    private Object lastKey;
     private Object filter;
     private SerializableComparator<T> inMemorySorting;
 
     private final ArrayList<QuerySortOrder> backEndSorting = new ArrayList<>();
+    private final List<Column<T>> sortColumns = new ArrayList<>();
+    private final List<Column<T>> quickSearchColumns = new ArrayList<>();
+    private String quickSearch;
+    private Element aggregateRow;
+    private transient Map<String, Number> backEndAggregates;
+    private boolean aggregatesDirty = true;
+    // Package protected to enable unit testing
+    final InMemoryPager<T> inMemoryPager = new InMemoryPager<>();
     private int dataProviderSize = -1;
+    private boolean itemCountKnown = true;
+    private boolean hasNextPage;
     private StringProvider<T> classNameProvider;
     private BeanTableLazyDataView<T> lazyDataView;
-    private Random rand = new Random();
+    private transient Random rand;
     private BeanTableI18n i18n;
     private FocusBehavior focusBehavior = FocusBehavior.NONE;
 
-    private Set<T> selected = new HashSet<>();
+    private transient Set<T> selected = new HashSet<>();
+    private transient Set<Object> unresolvedSelection;
+    private Set<Object> selectedIds = new LinkedHashSet<>();
     private boolean selectionEnabled = false;
+    private boolean compactMode;
+    private transient boolean releasePending;
 
     // Package protected to enable unit testing
     Element captionElement;
@@ -180,6 +272,13 @@ public class BeanTable<T> extends HtmlComponent
         private boolean rowHeader;
         private boolean visible = true;
         private MenuItem menuItem;
+        private boolean sortable;
+        private SerializableComparator<T> comparator;
+        private String sortProperty;
+        private SortDirection sortDirection;
+        private Set<Object> filterValues;
+        private AggregateFunction aggregate;
+        private SerializableFunction<Number, String> aggregateFormatter;
 
         /**
          * Constructor with header and value provider
@@ -406,6 +505,192 @@ public class BeanTable<T> extends HtmlComponent
         public boolean isVisible() {
             return visible;
         }
+
+        /**
+         * Set the column sortable by clicking the header. Shift click adds the
+         * column to the current sort order. Columns created by property name
+         * are sorted in the back end by the property. Columns with value
+         * provider are sorted in memory by comparing the values, unless other
+         * comparator has been set.
+         * <p>
+         * Note: Columns without a sort property can be sorted only in memory,
+         * thus they are not sortable when the data provider is not an
+         * {@link InMemoryDataProvider}, see {@link #isSortable()}. Component
+         * columns need a comparator or a sort property to be sorted, see
+         * {@link #setComparator(SerializableComparator)} and
+         * {@link #setSortProperty(String)}.
+         * 
+         * @param sortable
+         *            Boolean value
+         * @return Column for chaining
+         */
+        @SuppressWarnings("unchecked")
+        public Column<R> setSortable(boolean sortable) {
+            this.sortable = sortable;
+            if (!sortable && sortDirection != null) {
+                updateSortOrder((Column<T>) (Column<?>) this, null, true);
+            }
+            updateHeader();
+            return this;
+        }
+
+        /**
+         * Return true if the column is sortable. A column without a sort
+         * property is sortable only with in memory data.
+         * 
+         * @return Boolean value.
+         */
+        public boolean isSortable() {
+            return sortable && (getSortProperty() != null
+                    || getDataProvider() instanceof InMemoryDataProvider);
+        }
+
+        /**
+         * Set the comparator used for in memory sorting of the column. Sets the
+         * column sortable.
+         * 
+         * @param comparator
+         *            The comparator, not null
+         * @return Column for chaining
+         */
+        public Column<R> setComparator(SerializableComparator<T> comparator) {
+            Objects.requireNonNull(comparator, "Comparator can't be null");
+            this.comparator = comparator;
+            return setSortable(true);
+        }
+
+        /**
+         * Get the comparator used for in memory sorting of the column.
+         * 
+         * @return The comparator, null if the column can't be sorted in memory
+         */
+        public SerializableComparator<T> getComparator() {
+            if (comparator == null && valueProvider != null) {
+                comparator = (item1, item2) -> compareValues(
+                        valueProvider.apply(item1), valueProvider.apply(item2));
+            }
+            return comparator;
+        }
+
+        /**
+         * Set the property passed to the back end as {@link QuerySortOrder}
+         * when sorting by the column. Sets the column sortable. Columns created
+         * by property name use the property by default.
+         * 
+         * @param sortProperty
+         *            The property name, not null
+         * @return Column for chaining
+         */
+        public Column<R> setSortProperty(String sortProperty) {
+            Objects.requireNonNull(sortProperty,
+                    "Sort property can't be null");
+            this.sortProperty = sortProperty;
+            return setSortable(true);
+        }
+
+        /**
+         * Get the property passed to the back end when sorting by the column.
+         * 
+         * @return The property name, null if not set and not a property
+         *         column
+         */
+        public String getSortProperty() {
+            if (sortProperty == null && propertySet != null && key != null
+                    && propertySet.getProperty(key).isPresent()) {
+                return key;
+            }
+            return sortProperty;
+        }
+
+        /**
+         * Get the current sort direction of the column.
+         * 
+         * @return The direction, null if the table is not sorted by the column
+         */
+        public SortDirection getSortDirection() {
+            return sortDirection;
+        }
+
+        /**
+         * Filter the in memory data by the column. Only the items whose
+         * column value is one of the given values are shown. Filters of
+         * several columns are combined, i.e. all of them must match.
+         * <p>
+         * Low cardinality columns, e.g. enums and booleans, are filtered
+         * using a bitmap index, which is built once for the data. Thus
+         * filtering and counting do not need to scan the items.
+         * <p>
+         * Note: Column filters apply to in memory data, i.e. when the items
+         * are set as a collection or ListDataProvider. Component columns
+         * without a value provider can't be filtered.
+         * 
+         * @param values
+         *            The accepted values, null to remove the filter
+         * @return Column for chaining
+         */
+        public Column<R> setFilterValues(Collection<?> values) {
+            if (values != null && valueProvider == null) {
+                throw new IllegalStateException(
+                        "Column without value provider can't be filtered");
+            }
+            this.filterValues = values == null ? null : new HashSet<>(values);
+            updateColumnFilters();
+            return this;
+        }
+
+        /**
+         * Get the accepted values of the column filter.
+         * 
+         * @return Unmodifiable set of values, null if the column is not
+         *         filtered
+         */
+        public Set<Object> getFilterValues() {
+            return filterValues == null ? null
+                    : Collections.unmodifiableSet(filterValues);
+        }
+
+        /**
+         * Show the aggregate of the column in the footer aggregate row. The
+         * aggregate is computed over all the items matching the filters, not
+         * only the shown page.
+         * <p>
+         * In memory data is aggregated in one pass and the aggregates are
+         * updated incrementally when an item is refreshed. Back end data is
+         * aggregated with a single query when the data provider implements
+         * {@link AggregateDataProvider}, otherwise the aggregate is not shown.
+         * 
+         * @param function
+         *            The aggregate function, null to remove the aggregate
+         * @return Column for chaining
+         */
+        public Column<R> setAggregate(AggregateFunction function) {
+            return setAggregate(function, null);
+        }
+
+        /**
+         * Show the aggregate of the column in the footer aggregate row using
+         * a formatter.
+         * 
+         * @see #setAggregate(AggregateFunction)
+         * @param function
+         *            The aggregate function, null to remove the aggregate
+         * @param formatter
+         *            Function from the value to the text, null for the
+         *            default formatting
+         * @return Column for chaining
+         */
+        public Column<R> setAggregate(AggregateFunction function,
+                SerializableFunction<Number, String> formatter) {
+            this.aggregate = function;
+            this.aggregateFormatter = formatter;
+            aggregatesDirty = true;
+            requestReset();
+            return this;
+        }
+
+        public AggregateFunction getAggregate() {
+            return aggregate;
+        }
     }
 
     /**
@@ -418,11 +703,16 @@ public class BeanTable<T> extends HtmlComponent
      */
     class RowItem<R> implements Serializable {
 
-        private R item;
+        // Not serialized, the item is fetched again by the id when needed
+        private transient R item;
+        private Object itemId;
+        private int valuesHash;
         private Element rowElement;
 
         public RowItem(String id, R item) {
             this.item = item;
+            itemId = BeanTable.this.getItemId((T) item);
+            scheduleItemRelease();
             rowElement = new Element("tr");
             rowElement.setAttribute("role", "row");
             if (getClassNameProvider() != null) {
@@ -431,69 +721,58 @@ public class BeanTable<T> extends HtmlComponent
                     rowElement.getClassList().add(className);
                 }
             }
-            DomListenerRegistration clickReg = rowElement
-                    .addEventListener("click", event -> {
-                        toggleSelection();
-                        fireEvent(new ItemClickedEvent<>(BeanTable.this, item,
-                                true));
-                    });
-            clickReg.addEventData("event.detail");
-            clickReg.setFilter("event.detail == 1");
-            DomListenerRegistration keyReg = rowElement
-                    .addEventListener("keydown", event -> {
-                        if (event.getEventData()
-                                .getNumber("event.keyCode") == 32) {
-                            toggleSelection();
-                            fireEvent(new ItemClickedEvent<>(BeanTable.this,
-                                    item, true));
-                        } else if (event.getEventData()
-                                .getNumber("event.keyCode") == 33) {
-                            if (previous != null) {
-                                previous.click();
-                            }
-                        } else if (event.getEventData()
-                                .getNumber("event.keyCode") == 34) {
-                            if (next != null) {
-                                next.click();
-                            }
-                        }
-                    });
-            keyReg.addEventData("event.keyCode");
-            keyReg.addEventData(
-                    "([32, 33, 34].includes(event.keyCode)) ? event.preventDefault() : undefined");
-            keyReg.setFilter("[32, 33, 34].includes(event.keyCode)");
-            if (selected.contains(item)) {
+            if (isSelected()) {
                 rowElement.getThemeList().add("selected");
             }
             createCells();
-            rowElement.addDetachListener(e -> {
-                keyReg.remove();
-                clickReg.remove();
-            });
+        }
+
+        // Called by the listeners of the body element
+        void click() {
+            toggleSelection();
+            fireEvent(new ItemClickedEvent<>(BeanTable.this, getItem(), true));
         }
 
         // Package protected for enabling unit testing
         void toggleSelection() {
             if (selectionEnabled) {
-                if (selected.contains(item)) {
-                    selected.remove(item);
-                    rowElement.getThemeList().remove("selected");
-                    rowElement.setAttribute("aria-selected", "false");
-                    rowElement.getChildren().forEach(cell -> cell
-                            .setAttribute("aria-selected", "false"));
+                if (compactMode) {
+                    if (!selectedIds.remove(itemId)) {
+                        selectedIds.add(itemId);
+                    }
+                } else if (selection().contains(getItem())) {
+                    selection().remove(getItem());
                 } else {
-                    selected.add((T) item);
-                    rowElement.getThemeList().add("selected");
-                    rowElement.setAttribute("aria-selected", "true");
-                    rowElement.getChildren().forEach(
-                            cell -> cell.setAttribute("aria-selected", "true"));
+                    selection().add((T) getItem());
                 }
-                fireEvent(new BeanTableSelectionChangedEvent<>(BeanTable.this,
-                        selected, true));
+                updateSelected();
+                fireSelectionChanged(true);
+            }
+        }
+
+        boolean isSelected() {
+            return compactMode ? selectedIds.contains(itemId)
+                    : selection().contains(getItem());
+        }
+
+        // Update the selection state of the row without re-rendering it
+        void updateSelected() {
+            boolean isSelected = isSelected();
+            if (isSelected) {
+                rowElement.getThemeList().add("selected");
+            } else {
+                rowElement.getThemeList().remove("selected");
+            }
+            if (selectionEnabled) {
+                rowElement.setAttribute("aria-selected",
+                        String.valueOf(isSelected));
+                rowElement.getChildren().forEach(cell -> cell.setAttribute(
+                        "aria-selected", String.valueOf(isSelected)));
             }
         }
 
         private void createCells() {
+            List<Object> values = new ArrayList<>();
             Element indexCell = new Element("td");
             indexCell.getClassList().add("index");
             rowElement.appendChild(indexCell);
@@ -521,7 +800,7 @@ public class BeanTable<T> extends HtmlComponent
                 }
                 if (selectionEnabled) {
                     cell.setAttribute("aria-selected",
-                            selected.contains(item) ? "true" : "false");
+                            isSelected() ? "true" : "false");
                 }
                 if (!column.isVisible()) {
                     cell.getStyle().set("display", "none");
@@ -548,6 +827,7 @@ public class BeanTable<T> extends HtmlComponent
                 }
                 if (value == null)
                     value = "";
+                values.add(value);
                 if (component != null) {
                     cell.appendChild(component.getElement());
                 } else if (column.tooltipProvider != null) {
@@ -568,22 +848,52 @@ public class BeanTable<T> extends HtmlComponent
                 }
                 rowElement.appendChild(cell);
             });
+            valuesHash = values.hashCode();
         }
 
+        /**
+         * Get the item of the row. In compact mode the item is fetched again
+         * from the data provider if it has been released.
+         *
+         * @return The item, null if it is no longer in the data
+         */
         public R getItem() {
+            if (item == null) {
+                resolveRowItems();
+            }
             return item;
         }
 
+        Object getItemId() {
+            return itemId;
+        }
+
+        // Hash of the rendered values, used for detecting the changed rows
+        // when the item has been released
+        int getValuesHash() {
+            return valuesHash;
+        }
+
         public Element getRowElement() {
             return rowElement;
         }
 
         public void setItem(R item) {
             this.item = item;
+            itemId = BeanTable.this.getItemId((T) item);
+            scheduleItemRelease();
             rowElement.removeAllChildren();
             createCells();
         }
 
+        void resolveItem(R item) {
+            this.item = item;
+        }
+
+        void releaseItem() {
+            item = null;
+        }
+
     }
 
     /**
@@ -601,6 +911,7 @@ public class BeanTable<T> extends HtmlComponent
         footerElement = new Element("tfoot");
         bodyElement = new Element("tbody");
         bodyElement.setAttribute("role", "rowgroup");
+        addRowListeners();
         getElement().appendChild(headerElement);
         getElement().appendChild(bodyElement);
         getElement().appendChild(footerElement);
@@ -618,6 +929,53 @@ public class BeanTable<T> extends HtmlComponent
         });
     }
 
+    // The row events are listened in the body element instead of each row,
+    // which keeps the state tree and the serialized session smaller
+    private void addRowListeners() {
+        DomListenerRegistration clickReg = bodyElement
+                .addEventListener("click", event -> {
+                    getRow((int) event.getEventData().getNumber(ROW_INDEX))
+                            .ifPresent(RowItem::click);
+                });
+        clickReg.addEventData(ROW_INDEX);
+        clickReg.addEventData("event.detail");
+        clickReg.setFilter("event.detail == 1");
+        DomListenerRegistration keyReg = bodyElement
+                .addEventListener("keydown", event -> {
+                    if (event.getEventData()
+                            .getNumber("event.keyCode") == 32) {
+                        getRow((int) event.getEventData().getNumber(ROW_INDEX))
+                                .ifPresent(RowItem::click);
+                    } else if (event.getEventData()
+                            .getNumber("event.keyCode") == 33) {
+                        if (previous != null) {
+                            previous.click();
+                        }
+                    } else if (event.getEventData()
+                            .getNumber("event.keyCode") == 34) {
+                        if (next != null) {
+                            next.click();
+                        }
+                    }
+                });
+        keyReg.addEventData(ROW_INDEX);
+        keyReg.addEventData("event.keyCode");
+        keyReg.addEventData(
+                "([32, 33, 34].includes(event.keyCode)) ? event.preventDefault() : undefined");
+        keyReg.setFilter("[32, 33, 34].includes(event.keyCode)");
+    }
+
+    // Row at the index of the body element, empty for the alert rows
+    private Optional<RowItem<T>> getRow(int index) {
+        if (index < 0 || index >= bodyElement.getChildCount()) {
+            return Optional.empty();
+        }
+        Element rowElement = bodyElement.getChild(index);
+        return rows.stream()
+                .filter(row -> row.getRowElement().equals(rowElement))
+                .findFirst();
+    }
+
     private void enableKeyboardNavigation() {
         // Add JavaScript handling of the keyboard navigation
         bodyElement.executeJs(
@@ -913,285 +1271,2279 @@ public class BeanTable<T> extends HtmlComponent
             if (!column.isVisible()) {
                 cell.getStyle().set("display", "none");
             }
+            if (column.isSortable()) {
+                addSortListeners(column, cell);
+            }
             rowElement.appendChild(cell);
             index.incrementAndGet();
         });
         headerElement.appendChild(rowElement);
         headerElement.appendChild(menuButton.getElement());
+        updateSortIndicators();
     }
 
-    // Internally used by both user and programmatic visibility toggling
-    private void updateColumnVisibility(Column<?> column, boolean hide) {
-        int i = columns.indexOf(column);
-        Element c = headerElement.getChild(0).getChild(i + 1);
-        if (hide) {
-            c.getStyle().set("display", "none");
-            rows.forEach(row -> row.getRowElement().getChild(i + 1).getStyle()
-                    .set("display", "none"));
-            column.updateVisible(false);
+    private void addSortListeners(Column<T> column, Element cell) {
+        cell.getClassList().add("sortable");
+        cell.addEventListener("click", event -> {
+            toggleSort(column,
+                    event.getEventData().getBoolean("event.shiftKey"));
+        }).addEventData("event.shiftKey");
+        DomListenerRegistration keyReg = cell.addEventListener("keydown",
+                event -> {
+                    toggleSort(column, event.getEventData()
+                            .getBoolean("event.shiftKey"));
+                });
+        keyReg.addEventData("event.shiftKey");
+        keyReg.addEventData(
+                "([13, 32].includes(event.keyCode)) ? event.preventDefault() : undefined");
+        keyReg.setFilter("[13, 32].includes(event.keyCode)");
+    }
+
+    // Cycle the sort direction of the column: ascending, descending, none.
+    // Multi sort adds the column to the current sort order.
+    // Package protected to enable unit testing
+    void toggleSort(Column<T> column, boolean multiSort) {
+        SortDirection direction;
+        if (column.getSortDirection() == null) {
+            direction = SortDirection.ASCENDING;
+        } else if (column.getSortDirection() == SortDirection.ASCENDING) {
+            direction = SortDirection.DESCENDING;
         } else {
-            c.getStyle().remove("display");
-            rows.forEach(row -> row.getRowElement().getChild(i + 1).getStyle()
-                    .remove("display"));
-            column.updateVisible(true);
+            direction = null;
         }
+        updateSortOrder(column, direction, multiSort);
     }
 
-    // Rebuild the footer row to reflect the current state, e.g.
-    // the current page, paging buttons
-    private void updateFooter() {
-        footerElement.removeAllChildren();
-        if (dataProviderSize > 0) {
-            Element rowElement = new Element("tr");
-            Element cell = new Element("td");
-            cell.setAttribute("colspan", "" + (columns.size() + 1));
-            rowElement.appendChild(cell);
-            Button first = new Button();
-            first.setIcon(VaadinIcon.ANGLE_DOUBLE_LEFT.create());
-            first.addThemeVariants(ButtonVariant.LUMO_TERTIARY_INLINE);
-            previous = new Button();
-            previous.setIcon(VaadinIcon.ANGLE_LEFT.create());
-            previous.addThemeVariants(ButtonVariant.LUMO_TERTIARY_INLINE);
-            next = new Button();
-            next.setIcon(VaadinIcon.ANGLE_RIGHT.create());
-            next.addThemeVariants(ButtonVariant.LUMO_TERTIARY_INLINE);
-            Button last = new Button();
-            last.setIcon(VaadinIcon.ANGLE_DOUBLE_RIGHT.create());
-            last.addThemeVariants(ButtonVariant.LUMO_TERTIARY_INLINE);
-            int lastPage = dataProviderSize % pageLength == 0
-                    ? (dataProviderSize / pageLength) - 1
-                    : (dataProviderSize / pageLength);
-            first.addClickListener(event -> {
-                if (currentPage != 0) {
-                    currentPage = 0;
-                    getDataProvider().refreshAll();
-                    focus();
-                }
-            });
-            next.addClickListener(event -> {
-                if (currentPage < lastPage) {
-                    currentPage++;
-                    getDataProvider().refreshAll();
-                    focus();
-                }
-            });
-            previous.addClickListener(event -> {
-                if (currentPage > 0) {
-                    currentPage--;
-                    getDataProvider().refreshAll();
-                    focus();
-                }
-            });
-            last.addClickListener(event -> {
-                if (currentPage != lastPage) {
-                    currentPage = lastPage;
-                    getDataProvider().refreshAll();
-                    focus();
-                }
-            });
-            updateTooltips(first, previous, next, last);
-            Div div = new Div();
-            div.addClassName("bean-table-paging");
-            Div spacer = new Div();
-            spacer.addClassName("bean-table-page");
-            if (focusBehavior != focusBehavior.NONE) {
-                spacer.getElement().setAttribute("tabindex", "0");
+    private void updateSortOrder(Column<T> column, SortDirection direction,
+            boolean multiSort) {
+        if (!multiSort) {
+            sortColumns.forEach(col -> col.sortDirection = null);
+            sortColumns.clear();
+        }
+        if (column != null) {
+            column.sortDirection = direction;
+            if (direction == null) {
+                sortColumns.remove(column);
+            } else if (!sortColumns.contains(column)) {
+                sortColumns.add(column);
             }
-            if (i18n != null && i18n.getPageProvider() != null) {
-                spacer.setText(i18n.getPageProvider().apply(currentPage + 1,
-                        lastPage + 1));
-            } else {
-                spacer.setText((currentPage + 1) + "/" + (lastPage + 1));
+        }
+        backEndSorting.clear();
+        SerializableComparator<T> comparator = null;
+        for (Column<T> col : sortColumns) {
+            boolean descending = col
+                    .getSortDirection() == SortDirection.DESCENDING;
+            if (col.getSortProperty() != null) {
+                backEndSorting.add(new QuerySortOrder(col.getSortProperty(),
+                        col.getSortDirection()));
+            }
+            SerializableComparator<T> columnComparator = col.getComparator();
+            if (columnComparator != null) {
+                SerializableComparator<T> directed = descending
+                        ? (item1, item2) -> columnComparator.compare(item2,
+                                item1)
+                        : columnComparator;
+                comparator = comparator == null ? directed
+                        : thenComparing(comparator, directed);
             }
-            div.add(first, previous, spacer, next, last);
-            cell.appendChild(div.getElement());
-            footerElement.appendChild(rowElement);
         }
+        inMemorySorting = comparator;
+        updateSortIndicators();
+        // Sort order changes the content of every page
+        currentPage = 0;
+        renderedPage = -1;
+        requestReset();
     }
 
-    // Set button tooltips according to current i18n objects
-    private void updateTooltips(Button first, Button previous, Button next,
-            Button last) {
-        if (i18n != null) {
-            first.setTooltipText(i18n.getFirstPage());
-            last.setTooltipText(i18n.getLastPage());
-            previous.setTooltipText(i18n.getPreviousPage());
-            next.setTooltipText(i18n.getNextPage());
-            menuButton.setTooltipText(i18n.getMenuButton());
-        }
+    /**
+     * Set the quick search text. Only the items whose value in one of the
+     * quick search columns contains the text, ignoring case, are shown.
+     * <p>
+     * The search is answered using a trigram index over the string values of
+     * the columns. The index is built once for the data and it is updated
+     * incrementally when an item is refreshed. Thus type ahead filtering does
+     * not need to scan the items.
+     * <p>
+     * Note: Quick search applies to in memory data, i.e. when the items are
+     * set as a collection or ListDataProvider.
+     * 
+     * @param searchText
+     *            The search text, null or empty to show all items
+     */
+    public void setQuickSearch(String searchText) {
+        this.quickSearch = searchText;
+        updateQuickSearch();
     }
 
-    @Deprecated
-    public void setDataProvider(DataProvider<T, ?> dataProvider) {
-        this.dataProvider.set(dataProvider);
-        DataViewUtils.removeComponentFilterAndSortComparator(this);
-        if (getDataProvider() instanceof BackEndDataProvider) {
-            this.runBeforeClientResponse(ui -> {
-                int estimate = -1;
-                estimate = getLazyDataView().getItemCountEstimate();
-                if (estimate < 0) {
-                    reset(false);
-                }
-            });
-        } else {
-            reset(false);
-        }
-        setupDataProviderListener(dataProvider);
+    /**
+     * Get the quick search text.
+     * 
+     * @return The search text, can be null
+     */
+    public String getQuickSearch() {
+        return quickSearch;
     }
 
-    private void setupDataProviderListener(DataProvider<T, ?> dataProvider) {
-        if (dataProviderListenerRegistration != null) {
-            dataProviderListenerRegistration.remove();
+    /**
+     * Set the columns searched by the quick search. By default all the
+     * columns with a value provider are searched.
+     * 
+     * @param columns
+     *            The columns, none for the default
+     */
+    @SafeVarargs
+    public final void setQuickSearchColumns(Column<T>... columns) {
+        for (Column<T> column : columns) {
+            if (column.getValueProvider() == null) {
+                throw new IllegalArgumentException(
+                        "Column without value provider can't be searched");
+            }
         }
-        dataProviderListenerRegistration = dataProvider
-                .addDataProviderListener(event -> {
-                    if (event instanceof DataChangeEvent.DataRefreshEvent) {
-                        doRefreshItem(event);
-                    } else {
-                        reset(false);
-                    }
-                });
-    }
-
-    private void doRefreshItem(DataChangeEvent<T> event) {
-        T otherItem = ((DataChangeEvent.DataRefreshEvent<T>) event).getItem();
-        getRowItems()
-                .filter(rowItem -> Objects.equals(getItemId(rowItem.getItem()),
-                        getItemId(otherItem)))
-                .findFirst()
-                .ifPresent(rowItem -> updateRow(rowItem, otherItem));
+        quickSearchColumns.clear();
+        quickSearchColumns.addAll(Arrays.asList(columns));
+        updateQuickSearch();
     }
 
-    private RowItem<T> createRow(T item) {
-        RowItem<T> rowItem = new RowItem<>(keyMapper.key(item), item);
-        return rowItem;
+    private void updateQuickSearch() {
+        List<Column<T>> searched = quickSearchColumns.isEmpty() ? columns
+                : quickSearchColumns;
+        inMemoryPager.setQuickSearch(searched.stream()
+                .map(Column::getValueProvider).filter(Objects::nonNull)
+                .collect(Collectors.toList()), quickSearch);
+        currentPage = 0;
+        renderedPage = -1;
+        requestReset();
     }
 
-    private void addRow(RowItem<T> rowItem, int index) {
-        rows.add(rowItem);
-        rowItem.getRowElement().getChild(0).setText("" + (index + 1));
-        rowItem.getRowElement().setAttribute("aria-rowindex",
-                String.valueOf(index + 1));
+    // Rebuild the aggregate row of the footer, it is the first row of the
+    // footer when there are aggregated columns
+    private void updateAggregateRow() {
+        if (aggregateRow != null) {
+            aggregateRow.removeFromParent();
+            aggregateRow = null;
+        }
+        List<Column<T>> aggregated = columns.stream()
+                .filter(column -> column.getAggregate() != null)
+                .collect(Collectors.toList());
+        if (aggregated.isEmpty()) {
+            return;
+        }
+        Map<Column<T>, Number> values = computeAggregates(aggregated);
+        aggregateRow = new Element("tr");
+        aggregateRow.setAttribute("role", "row");
+        aggregateRow.getClassList().add("aggregates");
+        Element indexCell = new Element("td");
+        indexCell.getClassList().add("index");
+        aggregateRow.appendChild(indexCell);
+        columns.forEach(column -> {
+            Element cell = new Element("td");
+            cell.setAttribute("role", "gridcell");
+            if (column.getAggregate() != null) {
+                cell.setAttribute("aggregate",
+                        column.getAggregate().name().toLowerCase());
+                Number value = values.get(column);
+                cell.setText(column.aggregateFormatter != null
+                        ? column.aggregateFormatter.apply(value)
+                        : formatAggregate(value));
+            }
+            if (column.getAlignment() != null) {
+                cell.getStyle().set("text-align",
+                        column.getAlignment().toString().toLowerCase());
+            }
+            if (!column.isVisible()) {
+                cell.getStyle().set("display", "none");
+            }
+            aggregateRow.appendChild(cell);
+        });
+        footerElement.insertChild(0, aggregateRow);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Column<T>, Number> computeAggregates(
+            List<Column<T>> aggregated) {
+        Map<Column<T>, Number> values = new HashMap<>();
+        if (getDataProvider() instanceof ListDataProvider listDataProvider) {
+            Map<ValueProvider<T, ?>, InMemoryPager.Accumulator> accumulators = inMemoryPager
+                    .aggregate(listDataProvider, new Query(filter),
+                            aggregated.stream()
+                                    .map(Column::getValueProvider)
+                                    .filter(Objects::nonNull)
+                                    .collect(Collectors.toList()));
+            aggregated.stream()
+                    .filter(column -> column.getValueProvider() != null)
+                    .forEach(column -> values.put(column,
+                            accumulators.get(column.getValueProvider())
+                                    .get(column.getAggregate())));
+        } else if (getDataProvider() instanceof AggregateDataProvider aggregateDataProvider) {
+            if (aggregatesDirty || backEndAggregates == null) {
+                Map<String, AggregateFunction> functions = new HashMap<>();
+                aggregated.stream().filter(column -> column.getKey() != null)
+                        .forEach(column -> functions.put(column.getKey(),
+                                column.getAggregate()));
+                try {
+                    backEndAggregates = aggregateDataProvider
+                            .fetchAggregates(new Query(filter), functions);
+                } catch (Exception e) {
+                    backEndAggregates = null;
+                    LoggerFactory.getLogger(BeanTable.class)
+                            .error("Could not fetch aggregates", e);
+                }
+            }
+            if (backEndAggregates != null) {
+                aggregated.stream().filter(column -> column.getKey() != null)
+                        .forEach(column -> values.put(column,
+                                backEndAggregates.get(column.getKey())));
+            }
+        }
+        aggregatesDirty = false;
+        return values;
+    }
+
+    /**
+     * Create a sink for reporting item level changes from any thread, e.g. a
+     * market data feed. The changes are applied in batches at the flush
+     * interval, see {@link ChangeSink}. The table needs to be attached. The
+     * sink does not modify the data of the data provider, the application
+     * stores the inserted and deleted items before reporting them.
+     * 
+     * @param flushInterval
+     *            Interval of applying the changes, not null
+     * @return The change sink
+     */
+    public ChangeSink<T> createChangeSink(Duration flushInterval) {
+        return createChangeSink(flushInterval, null);
+    }
+
+    /**
+     * Create a sink for reporting item level changes from any thread.
+     * 
+     * @see #createChangeSink(Duration)
+     * @param flushInterval
+     *            Interval of applying the changes, not null
+     * @param scheduler
+     *            Scheduler of the flushes, null to use a shared daemon thread
+     * @return The change sink
+     */
+    public ChangeSink<T> createChangeSink(Duration flushInterval,
+            ScheduledExecutorService scheduler) {
+        Objects.requireNonNull(flushInterval,
+                "Flush interval can't be null");
+        UI ui = getUI().orElseThrow(() -> new IllegalStateException(
+                "BeanTable needs to be attached"));
+        return new ChangeSink<>(this, ui,
+                Math.max(1, flushInterval.toMillis()), scheduler);
+    }
+
+    /**
+     * Create a resource for downloading the data of the table, e.g. with
+     * {@link com.vaadin.flow.component.html.Anchor}. The export contains the
+     * visible columns having a value provider, and all the items matching the
+     * current filters in the current sort order. The items are fetched from
+     * the data provider in chunks when the resource is downloaded and written
+     * directly to the response, so the rows are not rendered and the memory
+     * use does not depend on the number of the items. Back end data providers
+     * implementing {@link KeysetDataProvider} are walked using the keys.
+     * 
+     * @param format
+     *            The format, not null
+     * @return The resource
+     */
+    public StreamResource createExport(ExportFormat format) {
+        Objects.requireNonNull(format, "Format can't be null");
+        StreamResource resource = new StreamResource(
+                "export." + format.name().toLowerCase(Locale.ROOT),
+                (out, session) -> writeExport(format, out, session));
+        resource.setContentType(format.getContentType());
+        return resource;
+    }
+
+    // Package protected to enable unit testing
+    @SuppressWarnings("unchecked")
+    void writeExport(ExportFormat format, OutputStream out,
+            VaadinSession session) throws IOException {
+        List<Column<T>> exported;
+        DataProvider<T, ?> provider;
+        List<QuerySortOrder> sortOrders;
+        Set<String> visibleProperties;
+        Query query;
+        List<T> inMemoryItems = null;
+        // The state of the table is read with the session lock held, the
+        // chunks are fetched using this snapshot
+        session.lock();
+        try {
+            exported = columns.stream()
+                    .filter(column -> column.isVisible()
+                            && column.getValueProvider() != null)
+                    .collect(Collectors.toList());
+            provider = getDataProvider();
+            query = createQuery(0, EXPORT_CHUNK_SIZE);
+            sortOrders = Collections
+                    .unmodifiableList(new ArrayList<>(query.getSortOrders()));
+            visibleProperties = new LinkedHashSet<>(
+                    ((ProjectionQuery<T, ?>) query).getVisibleProperties());
+            if (provider instanceof ListDataProvider) {
+                // In memory pager is shared with the table, the sorted and
+                // filtered items are captured at once
+                inMemoryItems = fetchFromProvider(
+                        createQuery(0, Integer.MAX_VALUE))
+                        .collect(Collectors.toList());
+            }
+        } finally {
+            session.unlock();
+        }
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writeExportRow(writer, format, exported.stream().map(
+                column -> column.header != null ? column.header
+                        : column.getKey())
+                .collect(Collectors.toList()));
+        int offset = 0;
+        Object key = null;
+        List<T> chunk;
+        do {
+            if (inMemoryItems != null) {
+                chunk = inMemoryItems.subList(offset, Math.min(
+                        inMemoryItems.size(), offset + EXPORT_CHUNK_SIZE));
+            } else {
+                Query chunkQuery = new ProjectionQuery(
+                        key != null ? 0 : offset, EXPORT_CHUNK_SIZE,
+                        sortOrders, query.getInMemorySorting(),
+                        query.getFilter().orElse(null), visibleProperties);
+                chunk = fetchChunk(provider, chunkQuery, key);
+            }
+            for (T item : chunk) {
+                writeExportRow(writer, format, exported.stream()
+                        .map(column -> column.getValueProvider().apply(item))
+                        .collect(Collectors.toList()));
+            }
+            writer.flush();
+            offset += chunk.size();
+            if (!chunk.isEmpty()
+                    && provider instanceof KeysetDataProvider keyset) {
+                key = keyset.getKey(chunk.get(chunk.size() - 1));
+            }
+        } while (chunk.size() == EXPORT_CHUNK_SIZE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> fetchChunk(DataProvider<T, ?> provider, Query query,
+            Object key) {
+        Stream<T> stream = key != null
+                && provider instanceof KeysetDataProvider keyset
+                        ? keyset.fetchAfter(query, key)
+                        : provider.fetch(query);
+        try (stream) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    private static void writeExportRow(Writer writer, ExportFormat format,
+            List<?> values) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                writer.write(format.getSeparator());
+            }
+            Object value = values.get(i);
+            writer.write(format.escape(value == null ? "" : value.toString()));
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Compute the statistics of the column values over all the items matching
+     * the filters. The statistics are computed in one streaming pass in the
+     * common fork join pool.
+     * 
+     * @see #computeStatistics(Column, Executor)
+     * @param column
+     *            The column, not null
+     * @return Future completed with the statistics
+     */
+    public CompletableFuture<ColumnStatistics> computeStatistics(
+            Column<T> column) {
+        return computeStatistics(column, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Compute the statistics of the column values over all the items matching
+     * the filters, e.g. for showing a data profile of the column. The
+     * statistics are computed in one streaming pass using the executor, so
+     * that the UI thread is not blocked. Memory use is constant regardless of
+     * the number of the items.
+     * <p>
+     * Back end data is fetched in chunks of 5000 items in the sort order of
+     * the table, by keyset when the data provider implements
+     * {@link KeysetDataProvider}. The cost is thus one query per chunk over
+     * all the filtered items, consider computing the statistics in the back
+     * end for large data sets.
+     * <p>
+     * Note: The future is completed in the thread of the executor, use
+     * {@link UI#access(com.vaadin.flow.server.Command)} to show the result.
+     * 
+     * @param column
+     *            The column, not null
+     * @param executor
+     *            The executor used for fetching and computing, not null
+     * @return Future completed with the statistics
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<ColumnStatistics> computeStatistics(
+            Column<T> column, Executor executor) {
+        Objects.requireNonNull(column, "Column can't be null");
+        Objects.requireNonNull(executor, "Executor can't be null");
+        ValueProvider<T, ?> valueProvider = column.getValueProvider();
+        if (valueProvider == null) {
+            throw new IllegalArgumentException(
+                    "Column without value provider has no statistics");
+        }
+        Stream<T> filtered;
+        DataProvider<T, ?> provider = getDataProvider();
+        if (provider instanceof ListDataProvider listDataProvider) {
+            // Filtered in memory data is captured in the UI thread
+            filtered = inMemoryPager.streamFiltered(listDataProvider,
+                    new Query(filter));
+        } else {
+            filtered = null;
+        }
+        // The query state is captured in the UI thread
+        List<QuerySortOrder> sortOrders = Collections
+                .unmodifiableList(new ArrayList<>(backEndSorting));
+        SerializableComparator<T> sorting = inMemorySorting;
+        Object queryFilter = filter;
+        return CompletableFuture.supplyAsync(() -> {
+            ColumnStatistics statistics = new ColumnStatistics();
+            if (filtered != null) {
+                try (Stream<T> stream = filtered) {
+                    stream.forEach(item -> statistics
+                            .add(valueProvider.apply(item)));
+                }
+                return statistics;
+            }
+            int offset = 0;
+            Object key = null;
+            List<T> chunk;
+            do {
+                Query chunkQuery = new Query(key != null ? 0 : offset,
+                        STATISTICS_CHUNK_SIZE, sortOrders, sorting,
+                        queryFilter);
+                chunk = fetchChunk(provider, chunkQuery, key);
+                chunk.forEach(
+                        item -> statistics.add(valueProvider.apply(item)));
+                offset += chunk.size();
+                if (!chunk.isEmpty()
+                        && provider instanceof KeysetDataProvider keyset) {
+                    key = keyset.getKey(chunk.get(chunk.size() - 1));
+                }
+            } while (chunk.size() == STATISTICS_CHUNK_SIZE);
+            return statistics;
+        }, executor);
+    }
+
+    // Whole numbers are shown without decimals
+    private static String formatAggregate(Number value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Double number && !number.isInfinite()
+                && number == Math.rint(number)
+                && Math.abs(number) < 1e15) {
+            return String.valueOf(number.longValue());
+        }
+        return value.toString();
+    }
+
+    private void updateColumnFilters() {
+        Map<ValueProvider<T, ?>, Set<?>> filters = new LinkedHashMap<>();
+        columns.stream().filter(column -> column.filterValues != null)
+                .forEach(column -> filters.put(column.getValueProvider(),
+                        column.filterValues));
+        inMemoryPager.setColumnFilters(filters);
+        currentPage = 0;
+        renderedPage = -1;
+        requestReset();
+    }
+
+    private static <T> SerializableComparator<T> thenComparing(
+            SerializableComparator<T> first,
+            SerializableComparator<T> second) {
+        return (item1, item2) -> {
+            int result = first.compare(item1, item2);
+            return result != 0 ? result : second.compare(item1, item2);
+        };
+    }
+
+    // Compare column values, nulls first, non comparable values by string
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compareValues(Object value1, Object value2) {
+        if (value1 == null || value2 == null) {
+            return value1 == value2 ? 0 : value1 == null ? -1 : 1;
+        }
+        if (value1 instanceof Comparable
+                && value1.getClass().isInstance(value2)) {
+            return ((Comparable) value1).compareTo(value2);
+        }
+        return value1.toString().compareTo(value2.toString());
+    }
+
+    // Update aria-sort and the sort indicator attributes of the header cells
+    private void updateSortIndicators() {
+        if (headerElement.getChildCount() == 0) {
+            return;
+        }
+        Element rowElement = headerElement.getChild(0);
+        for (int i = 0; i < columns.size(); i++) {
+            Column<T> column = columns.get(i);
+            Element cell = rowElement.getChild(i + 1);
+            if (!column.isSortable()) {
+                continue;
+            }
+            SortDirection direction = column.getSortDirection();
+            if (direction == null) {
+                cell.setAttribute("aria-sort", "none");
+                cell.removeAttribute("sort");
+                cell.removeAttribute("sort-priority");
+            } else {
+                cell.setAttribute("aria-sort",
+                        direction == SortDirection.ASCENDING ? "ascending"
+                                : "descending");
+                cell.setAttribute("sort",
+                        direction == SortDirection.ASCENDING ? "asc" : "desc");
+                if (sortColumns.size() > 1) {
+                    cell.setAttribute("sort-priority",
+                            String.valueOf(sortColumns.indexOf(column) + 1));
+                } else {
+                    cell.removeAttribute("sort-priority");
+                }
+            }
+        }
+    }
+
+    /**
+     * Sort the table by the column. Replaces the current sort order.
+     * 
+     * @param column
+     *            The column, null to clear the sort order
+     * @param direction
+     *            The sort direction, null to clear the sort order
+     */
+    public void sort(Column<T> column, SortDirection direction) {
+        if (column != null && !column.isSortable()) {
+            throw new IllegalArgumentException("Column is not sortable");
+        }
+        updateSortOrder(direction == null ? null : column, direction, false);
+    }
+
+    /**
+     * Get the columns the table is sorted by in the order of priority.
+     * 
+     * @return Unmodifiable list of columns
+     */
+    public List<Column<T>> getSortOrder() {
+        return Collections.unmodifiableList(sortColumns);
+    }
+
+    // Internally used by both user and programmatic visibility toggling
+    private void updateColumnVisibility(Column<?> column, boolean hide) {
+        int i = columns.indexOf(column);
+        Element c = headerElement.getChild(0).getChild(i + 1);
+        if (hide) {
+            c.getStyle().set("display", "none");
+            rows.forEach(row -> row.getRowElement().getChild(i + 1).getStyle()
+                    .set("display", "none"));
+            if (aggregateRow != null) {
+                aggregateRow.getChild(i + 1).getStyle().set("display", "none");
+            }
+            column.updateVisible(false);
+        } else {
+            c.getStyle().remove("display");
+            rows.forEach(row -> row.getRowElement().getChild(i + 1).getStyle()
+                    .remove("display"));
+            if (aggregateRow != null) {
+                aggregateRow.getChild(i + 1).getStyle().remove("display");
+            }
+            column.updateVisible(true);
+            // Back end may have left the property of the hidden column
+            // unloaded, see ProjectionQuery
+            if (column.getKey() != null
+                    && !(getDataProvider() instanceof ListDataProvider)) {
+                renderedPage = -1;
+                requestReset();
+            }
+        }
+    }
+
+    // Rebuild the footer row to reflect the current state, e.g.
+    // the current page, paging buttons
+    private void updateFooter() {
+        footerElement.removeAllChildren();
+        if (dataProviderSize > 0) {
+            Element rowElement = new Element("tr");
+            Element cell = new Element("td");
+            cell.setAttribute("colspan", "" + (columns.size() + 1));
+            rowElement.appendChild(cell);
+            Button first = new Button();
+            first.setIcon(VaadinIcon.ANGLE_DOUBLE_LEFT.create());
+            first.addThemeVariants(ButtonVariant.LUMO_TERTIARY_INLINE);
+            previous = new Button();
+            previous.setIcon(VaadinIcon.ANGLE_LEFT.create());
+            previous.addThemeVariants(ButtonVariant.LUMO_TERTIARY_INLINE);
+            next = new Button();
+            next.setIcon(VaadinIcon.ANGLE_RIGHT.create());
+            next.addThemeVariants(ButtonVariant.LUMO_TERTIARY_INLINE);
+            Button last = new Button();
+            last.setIcon(VaadinIcon.ANGLE_DOUBLE_RIGHT.create());
+            last.addThemeVariants(ButtonVariant.LUMO_TERTIARY_INLINE);
+            int lastPage = dataProviderSize % pageLength == 0
+                    ? (dataProviderSize / pageLength) - 1
+                    : (dataProviderSize / pageLength);
+            first.addClickListener(event -> {
+                if (currentPage != 0) {
+                    currentPage = 0;
+                    requestReset();
+                    focus();
+                }
+            });
+            next.addClickListener(event -> {
+                if (currentPage < lastPage) {
+                    currentPage++;
+                    requestReset();
+                    focus();
+                }
+            });
+            previous.addClickListener(event -> {
+                if (currentPage > 0) {
+                    currentPage--;
+                    requestReset();
+                    focus();
+                }
+            });
+            last.addClickListener(event -> {
+                if (currentPage != lastPage) {
+                    currentPage = lastPage;
+                    requestReset();
+                    focus();
+                }
+            });
+            // Last page can't be jumped to before the item count is known
+            last.setEnabled(itemCountKnown);
+            updateTooltips(first, previous, next, last);
+            Div div = new Div();
+            div.addClassName("bean-table-paging");
+            Div spacer = new Div();
+            spacer.addClassName("bean-table-page");
+            if (focusBehavior != focusBehavior.NONE) {
+                spacer.getElement().setAttribute("tabindex", "0");
+            }
+            if (!itemCountKnown) {
+                if (i18n != null && i18n.getUnknownPageCountProvider() != null) {
+                    spacer.setText(i18n.getUnknownPageCountProvider()
+                            .apply(currentPage + 1));
+                } else {
+                    spacer.setText((currentPage + 1) + "/many");
+                }
+            } else if (i18n != null && i18n.getPageProvider() != null) {
+                spacer.setText(i18n.getPageProvider().apply(currentPage + 1,
+                        lastPage + 1));
+            } else {
+                spacer.setText((currentPage + 1) + "/" + (lastPage + 1));
+            }
+            div.add(first, previous, spacer, next, last);
+            cell.appendChild(div.getElement());
+            footerElement.appendChild(rowElement);
+        }
+    }
+
+    // Set button tooltips according to current i18n objects
+    private void updateTooltips(Button first, Button previous, Button next,
+            Button last) {
+        if (i18n != null) {
+            first.setTooltipText(i18n.getFirstPage());
+            last.setTooltipText(i18n.getLastPage());
+            previous.setTooltipText(i18n.getPreviousPage());
+            next.setTooltipText(i18n.getNextPage());
+            menuButton.setTooltipText(i18n.getMenuButton());
+        }
+    }
+
+    @Deprecated
+    public void setDataProvider(DataProvider<T, ?> dataProvider) {
+        if (compactMode) {
+            checkCompactModeSupported(dataProvider);
+        }
+        this.dataProvider.set(dataProvider);
+        DataViewUtils.removeComponentFilterAndSortComparator(this);
+        updateSortableColumns();
+        renderedPage = -1;
+        aggregatesDirty = true;
+        requestReset();
+        setupDataProviderListener(dataProvider);
+    }
+
+    // Columns sorted only in memory are not sortable with back end data
+    private void updateSortableColumns() {
+        if (columns.stream().noneMatch(
+                column -> column.sortable && column.getSortProperty() == null)) {
+            return;
+        }
+        List<Column<T>> unsortable = sortColumns.stream()
+                .filter(column -> !column.isSortable())
+                .collect(Collectors.toList());
+        if (!unsortable.isEmpty()) {
+            unsortable.forEach(column -> column.sortDirection = null);
+            sortColumns.removeAll(unsortable);
+            updateSortOrder(null, null, true);
+        }
+        updateHeader();
+    }
+
+    private void setupDataProviderListener(DataProvider<T, ?> dataProvider) {
+        if (dataProviderListenerRegistration != null) {
+            dataProviderListenerRegistration.remove();
+        }
+        dataProviderListenerRegistration = dataProvider
+                .addDataProviderListener(event -> {
+                    if (event instanceof DataChangeEvent.DataRefreshEvent) {
+                        T item = ((DataChangeEvent.DataRefreshEvent<T>) event)
+                                .getItem();
+                        if (refreshWindow == null) {
+                            applyRefreshes(Collections.singletonList(item));
+                        } else {
+                            requestRefresh(item);
+                        }
+                    } else {
+                        if (isProviderShared()
+                                && getActivePageCache() != null) {
+                            getActivePageCache().invalidate(getCacheId());
+                        }
+                        inMemoryPager.invalidate();
+                        aggregatesDirty = true;
+                        // Data has changed, keys of the rendered page are
+                        // not valid
+                        renderedPage = -1;
+                        requestReset();
+                    }
+                });
+    }
+
+    // Refreshes of the same item are coalesced until the flush, which is
+    // done before the client response or after the refresh window
+    private void requestRefresh(T item) {
+        if (pendingRefreshes.put(getItemId(item), item) != null) {
+            coalescedRefreshCount++;
+        }
+        if (refreshFlushPending) {
+            return;
+        }
+        refreshFlushPending = true;
+        long delay = refreshWindow.toMillis()
+                - (System.currentTimeMillis() - lastRefreshFlush);
+        Optional<UI> ui = getUI();
+        if (delay <= 0 || ui.isEmpty()) {
+            runBeforeClientResponse(context -> flushRefreshes());
+        } else {
+            ChangeSink.getFlushScheduler().schedule(() -> {
+                try {
+                    ui.get().access(this::flushRefreshes);
+                } catch (UIDetachedException e) {
+                    // Not shown anymore, the refreshes were flushed when
+                    // detached
+                    refreshFlushPending = false;
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushRefreshes() {
+        if (!refreshFlushPending) {
+            return;
+        }
+        refreshFlushPending = false;
+        lastRefreshFlush = System.currentTimeMillis();
+        List<T> items = new ArrayList<>(pendingRefreshes.values());
+        pendingRefreshes.clear();
+        applyRefreshes(items);
+    }
+
+    // Each affected row is rendered once and the aggregates are updated once
+    private void applyRefreshes(Collection<T> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        inMemoryPager.refreshItems(items, this::getItemId);
+        Map<Object, RowItem<T>> rowsById = new HashMap<>();
+        rows.forEach(
+                rowItem -> rowsById.putIfAbsent(rowItem.getItemId(), rowItem));
+        items.forEach(item -> {
+            RowItem<T> rowItem = rowsById.get(getItemId(item));
+            if (rowItem != null) {
+                updateRow(rowItem, item);
+            }
+        });
+        if (!(getDataProvider() instanceof ListDataProvider)) {
+            aggregatesDirty = true;
+        }
+        updateAggregateRow();
+    }
+
+    // Apply the batch of the changes of the change sink, the table is reset
+    // once if there are inserted or deleted items. The items are stored by
+    // the application, the data of the data provider is not modified here.
+    void applyChanges(List<T> inserted, List<T> updated, List<T> deleted) {
+        if (!inserted.isEmpty() || !deleted.isEmpty()) {
+            updated.forEach(item -> pendingRefreshes.remove(getItemId(item)));
+            inMemoryPager.invalidate();
+            aggregatesDirty = true;
+            renderedPage = -1;
+            requestReset();
+        } else {
+            applyRefreshes(updated);
+        }
+    }
+
+    private RowItem<T> createRow(T item) {
+        RowItem<T> rowItem = new RowItem<>(
+                compactMode ? null : getKeyMapper().key(item), item);
+        return rowItem;
+    }
+
+    private void addRow(RowItem<T> rowItem, int index) {
+        rows.add(rowItem);
+        rowItem.getRowElement().getChild(0).setText("" + (index + 1));
+        rowItem.getRowElement().setAttribute("aria-rowindex",
+                String.valueOf(index + 1));
         if (index % 2 == 0) {
             rowItem.getRowElement().getClassList().add("even");
         }
-        bodyElement.appendChild(rowItem.getRowElement());
+        bodyElement.appendChild(rowItem.getRowElement());
+    }
+
+    // Conditionally sets an informative message for the user if there has been
+    // no data fetched.
+    private void setNoData() {
+        if (rows.isEmpty()) {
+            bodyElement.setText("");
+            Element row = new Element("tr");
+            Element cell = createAlertCell();
+            cell.getClassList().add("no-data");
+            cell.setText(i18n != null && i18n.getNoDataText() != null
+                    ? i18n.getNoDataText()
+                    : "No data");
+            row.appendChild(cell);
+            bodyElement.appendChild(row);
+        }
+    }
+
+    // Called when data fetch failed, add an informative error for the user
+    private void setError() {
+        bodyElement.setText("");
+        Element row = new Element("tr");
+        Element cell = createAlertCell();
+        cell.getClassList().add("error-occurred");
+        cell.setText(i18n != null && i18n.getErrorText() != null
+                ? i18n.getErrorText()
+                : "Failed fetching data");
+        row.appendChild(cell);
+        bodyElement.appendChild(row);
+    }
+
+    private Element createAlertCell() {
+        Element cell = new Element("td");
+
+        cell.setAttribute("colspan", "" + (columns.size() + 1));
+        cell.setAttribute("aria-live", "assertive");
+        cell.setAttribute("role", "alert");
+        return cell;
+    }
+
+    /**
+     * Request the content of the table to be refreshed. The table is marked
+     * dirty and the reset is done once before the client response. Multiple
+     * requests during the same server round trip are coalesced.
+     */
+    void requestReset() {
+        if (resetPending) {
+            coalescedResetCount++;
+            return;
+        }
+        resetPending = true;
+        runBeforeClientResponse(ui -> {
+            if (resetPending) {
+                reset(false);
+            }
+        });
+    }
+
+    // Perform the pending reset now, used when the up to date state is needed
+    // before the client response
+    private void flushReset() {
+        if (resetPending) {
+            reset(false);
+        }
+    }
+
+    /**
+     * Refresh the items in bulk. The rows of the items are rendered once and
+     * the aggregates are updated once. Unlike
+     * {@link DataProvider#refreshItem(Object)}, only this table is refreshed.
+     * 
+     * @param items
+     *            The refreshed items, not null
+     */
+    public void refreshItems(Collection<T> items) {
+        Objects.requireNonNull(items, "Items can't be null");
+        Map<Object, T> unique = new LinkedHashMap<>();
+        items.forEach(item -> {
+            if (unique.put(getItemId(item), item) != null) {
+                coalescedRefreshCount++;
+            }
+        });
+        unique.keySet().forEach(pendingRefreshes::remove);
+        applyRefreshes(unique.values());
+    }
+
+    /**
+     * Coalesce the item refreshes of the data provider, e.g. when the same
+     * items are refreshed many times. The refreshes are collected by item id,
+     * and the rows of the refreshed items are rendered once before the client
+     * response. With a positive window the refreshes are applied at most once
+     * per window, later ones are applied in
+     * {@link UI#access(com.vaadin.flow.server.Command)} when the window has
+     * passed, which needs server push to be shown. The refreshes pending when
+     * the session is serialized are not written.
+     * 
+     * @param window
+     *            The refresh window, {@link Duration#ZERO} to coalesce within
+     *            the server round trip, null to apply each refresh immediately
+     *            (the default)
+     */
+    public void setRefreshCoalescing(Duration window) {
+        this.refreshWindow = window;
+    }
+
+    /**
+     * Get the number of the item refreshes avoided by coalescing.
+     * 
+     * @see #setRefreshCoalescing(Duration)
+     * @return int value
+     */
+    public int getCoalescedRefreshCount() {
+        return coalescedRefreshCount;
+    }
+
+    /**
+     * Get the number of the resets avoided by coalescing the reset requests,
+     * e.g. changing the filter, page and selection in the same server round
+     * trip cause only one fetch of the data.
+     * 
+     * @return int value
+     */
+    public int getCoalescedResetCount() {
+        return coalescedResetCount;
+    }
+
+    void reset(boolean refresh) {
+        resetPending = false;
+        FetchResult<T> fetched = fetchResult;
+        fetchResult = null;
+        CacheRead cacheRead = CacheRead.CACHE;
+        if (fetched == null && isFetchedInBackground()) {
+            if (staleMaxAge == null) {
+                fetchInBackground(refresh);
+                return;
+            }
+            // Cached page is shown immediately, otherwise it is fetched in
+            // the background
+            cacheRead = CacheRead.CACHE_ONLY;
+        }
+        if (fetched == null) {
+            // Supersedes the pending background fetch or revalidation
+            fetchGeneration++;
+        }
+        servedFromCache = false;
+        boolean countUnknown = isCountUnknown();
+        PagingDirection direction = getPagingDirection();
+        Stream<T> stream = null;
+        Exception fetchError = null;
+        synchronized (dataProvider) {
+            try {
+                int size = -1;
+                if (fetched != null) {
+                    stream = fetched.stream();
+                    size = fetched.size;
+                }
+                if (isSizeNeeded(countUnknown)) {
+                    if (fetched == null) {
+                        int estimate = getSizeEstimate();
+                        size = estimate < 0 ? fetchSize(cacheRead)
+                                : estimate;
+                    }
+                    dataProviderSize = size;
+                    itemCountKnown = true;
+                    currentPage = getPageInRange(size);
+                }
+                if (stream == null) {
+                    stream = fetchPageWithPolicy(new FetchContext<>(this),
+                            createPageQuery(countUnknown, size),
+                            createKeysetPage(direction, countUnknown),
+                            cacheRead);
+                }
+            } catch (Exception e) {
+                fetchError = e;
+            }
+        }
+        if (fetchError instanceof CacheMissException) {
+            fetchInBackground(refresh);
+            return;
+        }
+        if (fetchError != null && isStalePageKept()) {
+            showStalePage(fetchError);
+            return;
+        }
+        getElement().removeAttribute("stale");
+        if (!refresh) {
+            bodyElement.setText("");
+            rows = new ArrayList<>();
+        }
+        getKeyMapper().removeAll();
+        synchronized (dataProvider) {
+            final AtomicInteger itemCounter = new AtomicInteger(0);
+            boolean error = false;
+            hasNextPage = false;
+            rowLimitExceeded = false;
+            stopProgressiveRendering();
+            try {
+                if (fetchError != null) {
+                    throw fetchError;
+                }
+                if (pageLength < 0 && progressiveTimeBudget != null
+                        && isAttached()) {
+                    progressiveStream = stream;
+                    progressiveIterator = stream.iterator();
+                    if (renderChunk()) {
+                        scheduleNextChunk();
+                    } else if (isPagedOnRowLimit()) {
+                        switchToPagedMode();
+                        return;
+                    } else {
+                        stopProgressiveRendering();
+                    }
+                    itemCounter.set(rows.size());
+                } else {
+                    if (pageLength < 0 && unpagedRowLimit > 0
+                            && rowLimitMode == RowLimitMode.PAGED) {
+                        // Switch before rendering if the limit is exceeded
+                        List<T> items = stream.limit(unpagedRowLimit + 1L)
+                                .collect(Collectors.toList());
+                        if (items.size() > unpagedRowLimit) {
+                            switchToPagedMode(items);
+                            return;
+                        }
+                        stream = items.stream();
+                    }
+                    stream.forEach(item -> {
+                        if (pageLength > 0
+                                && itemCounter.get() == pageLength) {
+                            hasNextPage = true;
+                            return;
+                        }
+                        if (isRowLimitReached()) {
+                            rowLimitExceeded = true;
+                            return;
+                        }
+                        addRow(createRow(item), (currentPage * pageLength)
+                                + itemCounter.get());
+                        itemCounter.incrementAndGet();
+                    });
+                }
+            } catch (Exception e) {
+                stopProgressiveRendering();
+                setError();
+                error = true;
+                LoggerFactory.getLogger(BeanTable.class)
+                        .error("Could not fetch data", e);
+            }
+            if (!error) {
+                setNoData();
+            }
+            updateKeys();
+            renderedPage = currentPage;
+            lastFetchedDataSize = itemCounter.get();
+            if (countUnknown) {
+                updateItemCountEstimate(itemCounter.get(),
+                        hasNextPage
+                                || direction == PagingDirection.PREVIOUS);
+            }
+            if (pageLength > 0) {
+                updateFooter();
+            } else {
+                updateTruncationNotice();
+            }
+            updateAggregateRow();
+            if (progressiveIterator != null || rowLimitExceeded) {
+                // Total is not known until the last chunk has been rendered
+                getElement().setAttribute("aria-rowcount", "-1");
+            } else if (pageLength < 0) {
+                getElement().setAttribute("aria-rowcount",
+                        String.valueOf(lastFetchedDataSize));
+            } else if (!itemCountKnown) {
+                // Unknown row count is -1 by ARIA specification
+                getElement().setAttribute("aria-rowcount", "-1");
+            } else {
+                getElement().setAttribute("aria-rowcount",
+                        String.valueOf(dataProviderSize));
+            }
+            if (sizeRequest == null && progressiveIterator == null) {
+                sizeRequest = ui -> {
+                    fireSizeEvent();
+                    sizeRequest = null;
+                };
+                // Size event is fired before client response so as to avoid
+                // multiple size change events during server round trips
+                runBeforeClientResponse(sizeRequest);
+            }
+            if (progressiveIterator == null) {
+                fireRowMemoryEstimateEvent();
+            }
+        }
+        if (servedFromCache && fetchError == null && isAttached()) {
+            getElement().setAttribute("stale", true);
+            revalidate(countUnknown);
+        }
+    }
+
+    private boolean isCountUnknown() {
+        return pageLength > 0
+                && getDataProvider() instanceof BackEndDataProvider
+                && getLazyDataView().isItemCountUnknown();
+    }
+
+    private boolean isSizeNeeded(boolean countUnknown) {
+        return pageLength > 0 && !countUnknown;
+    }
+
+    private int getSizeEstimate() {
+        if (getDataProvider() instanceof BackEndDataProvider) {
+            return getLazyDataView().getItemCountEstimate();
+        }
+        return -1;
+    }
+
+    // The current page or the last page if the size has decreased
+    private int getPageInRange(int size) {
+        return getPageInRange(size, currentPage, pageLength);
+    }
+
+    private static int getPageInRange(int size, int page, int pageLength) {
+        if (size < pageLength * page) {
+            return Math.floorDiv(size, pageLength);
+        }
+        return page;
+    }
+
+    // Query of the page to be rendered, the size is used only when the page
+    // is based on a known item count
+    private Query createPageQuery(boolean countUnknown, int size) {
+        return createPageQueryFactory(countUnknown).apply(size);
+    }
+
+    // The state of the table is captured in the UI thread, the query is
+    // created when the size is known, possibly in another thread
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private SerializableFunction<Integer, Query> createPageQueryFactory(
+            boolean countUnknown) {
+        ProjectionQuery<T, ?> template = (ProjectionQuery<T, ?>) createQuery(
+                0, 0);
+        int page = currentPage;
+        int length = pageLength;
+        int rowLimit = unpagedRowLimit;
+        return size -> {
+            int offset = 0;
+            int limit;
+            if (length < 0 && rowLimit > 0) {
+                // Fetch one extra item to detect that the limit is exceeded
+                // without asking the size from the data provider
+                limit = rowLimit + 1;
+            } else if (length < 0) {
+                limit = Integer.MAX_VALUE;
+            } else if (countUnknown) {
+                // Fetch one extra item to detect whether there is a next page
+                // without asking the size from the data provider
+                offset = length * page;
+                limit = length + 1;
+            } else {
+                offset = length * getPageInRange(size, page, length);
+                limit = length;
+            }
+            return new ProjectionQuery(offset, limit,
+                    template.getSortOrders(),
+                    template.getInMemorySorting(),
+                    template.getFilter().orElse(null),
+                    template.getVisibleProperties());
+        };
+    }
+
+    // Keyset pagination to the page adjacent to the rendered one, null if
+    // the page is fetched by offset. Captured in the UI thread.
+    private KeysetPage createKeysetPage(PagingDirection direction,
+            boolean countUnknown) {
+        if (pageLength < 0
+                || !(getDataProvider() instanceof KeysetDataProvider)) {
+            return null;
+        } else if (direction == PagingDirection.NEXT && lastKey != null) {
+            return new KeysetPage(true, lastKey, createQuery(0,
+                    countUnknown ? pageLength + 1 : pageLength));
+        } else if (direction == PagingDirection.PREVIOUS
+                && firstKey != null) {
+            return new KeysetPage(false, firstKey,
+                    createQuery(0, pageLength));
+        }
+        return null;
+    }
+
+    // Size of the filtered data using the page cache, single flight and the
+    // fetch policy when applicable
+    private int fetchSize(CacheRead cacheRead) throws Exception {
+        return fetchSize(new FetchContext<>(this), new Query(filter),
+                cacheRead);
+    }
+
+    private int fetchSize(FetchContext<T> context, Query query,
+            CacheRead cacheRead) throws Exception {
+        QueryFingerprint key = context.cacheId != null
+                ? QueryFingerprint.ofSize(context.cacheId, query)
+                : null;
+        PageCache.Entry entry = getCachedEntry(context, key, cacheRead);
+        if (entry != null) {
+            return (Integer) entry.getValue();
+        }
+        SerializableSupplier<Integer> fetch = () -> sizeFromProvider(
+                context.dataProvider, query);
+        return fetchShared(context, key, fetch,
+                cacheRead == CacheRead.BACKGROUND);
+    }
+
+    // With the fetch policy the items are collected within the policy, so
+    // that failures of lazy streams are retried and timed out too
+    @SuppressWarnings("unchecked")
+    private Stream<T> fetchPageWithPolicy(FetchContext<T> context,
+            Query query, KeysetPage keysetPage, CacheRead cacheRead)
+            throws Exception {
+        QueryFingerprint key = context.cacheId != null
+                ? QueryFingerprint.ofFetch(context.cacheId, query)
+                : null;
+        PageCache.Entry entry = getCachedEntry(context, key, cacheRead);
+        if (entry != null) {
+            return ((List<T>) entry.getValue()).stream();
+        }
+        if (context.fetchPolicy == null && key == null) {
+            return fetchPage(context.dataProvider, query, keysetPage);
+        }
+        SerializableSupplier<List<T>> fetch = () -> {
+            try (Stream<T> stream = fetchPage(context.dataProvider, query,
+                    keysetPage)) {
+                return Collections
+                        .unmodifiableList(stream.collect(Collectors.toList()));
+            }
+        };
+        return fetchShared(context, key, fetch,
+                cacheRead == CacheRead.BACKGROUND).stream();
+    }
+
+    // Cached result within the age limit of the stale while revalidate mode
+    private PageCache.Entry getCachedEntry(FetchContext<T> context,
+            QueryFingerprint key, CacheRead cacheRead) {
+        PageCache.Entry entry = key != null && context.pageCache != null
+                ? context.pageCache.get(key)
+                : null;
+        if (entry != null && context.staleMaxAge != null
+                && entry.getAge() > context.staleMaxAge.toMillis()) {
+            entry = null;
+        }
+        if (entry == null && cacheRead == CacheRead.CACHE_ONLY) {
+            throw new CacheMissException();
+        }
+        if (entry != null && context.staleMaxAge != null
+                && cacheRead != CacheRead.BACKGROUND) {
+            servedFromCache = true;
+        }
+        return entry;
+    }
+
+    // Identical queries of the tables sharing the provider id are run once,
+    // the result is cached if the page cache is set. The policy retries only
+    // the fetches run in the background.
+    private static <R> R fetchShared(FetchContext<?> context,
+            QueryFingerprint key, SerializableSupplier<R> fetch,
+            boolean background) throws Exception {
+        FetchPolicy fetchPolicy = context.fetchPolicy;
+        if (key == null) {
+            return fetchPolicy == null ? fetch.get()
+                    : fetchPolicy.execute(context.dataProvider, fetch,
+                            background);
+        }
+        return SingleFlight.execute(key, () -> {
+            R result = fetchPolicy == null ? fetch.get()
+                    : fetchPolicy.execute(context.dataProvider, fetch,
+                            background);
+            if (context.pageCache != null) {
+                context.pageCache.put(key, result);
+            }
+            return result;
+        });
+    }
+
+    // State of the table used by a fetch. Created in the UI thread, so that
+    // the fetches run in the executor do not read the fields of the table,
+    // and the local page cache is not created outside the session lock.
+    private static class FetchContext<T> {
+        private final DataProvider<T, ?> dataProvider;
+        private final PageCache pageCache;
+        // Null when the data is not shared
+        private final String cacheId;
+        private final FetchPolicy fetchPolicy;
+        private final Duration staleMaxAge;
+
+        FetchContext(BeanTable<T> table) {
+            dataProvider = table.getDataProvider();
+            pageCache = table.getActivePageCache();
+            cacheId = table.isProviderShared() ? table.getCacheId() : null;
+            fetchPolicy = table.fetchPolicy;
+            staleMaxAge = table.staleMaxAge;
+        }
+    }
+
+    // In memory data is not shared
+    private boolean isProviderShared() {
+        return getCacheId() != null
+                && !(getDataProvider() instanceof ListDataProvider);
+    }
+
+    // Without the provider id the stale while revalidate mode uses a cache
+    // of this table
+    private String getCacheId() {
+        return providerId != null ? providerId : localCacheId;
+    }
+
+    private PageCache getActivePageCache() {
+        if (pageCache != null) {
+            return pageCache;
+        }
+        // The local cache is not serialized
+        if (localPageCache == null && staleMaxAge != null) {
+            localPageCache = new InMemoryPageCache(STALE_CACHE_SIZE,
+                    staleMaxAge);
+        }
+        return localPageCache;
+    }
+
+    // Fetch the shown page again bypassing the cache, and apply the changes
+    private void revalidate(boolean countUnknown) {
+        long generation = ++fetchGeneration;
+        boolean sizeNeeded = isSizeNeeded(countUnknown)
+                && getSizeEstimate() < 0;
+        Query sizeQuery = new Query(filter);
+        Query pageQuery = createPageQuery(countUnknown, dataProviderSize);
+        FetchContext<T> context = new FetchContext<>(this);
+        String cacheId = getCacheId();
+        UI ui = getUI().get();
+        Executor executor = fetchExecutor != null ? fetchExecutor
+                : ForkJoinPool.commonPool();
+        executor.execute(() -> {
+            if (generation != fetchGeneration) {
+                return;
+            }
+            try {
+                int size = sizeNeeded ? fetchShared(context,
+                        QueryFingerprint.ofSize(cacheId, sizeQuery),
+                        () -> sizeFromProvider(context.dataProvider,
+                                sizeQuery),
+                        true) : -1;
+                List<T> items = fetchShared(context,
+                        QueryFingerprint.ofFetch(cacheId, pageQuery),
+                        () -> {
+                            try (Stream<T> stream = fetchPage(
+                                    context.dataProvider, pageQuery, null)) {
+                                return Collections.unmodifiableList(
+                                        stream.collect(Collectors.toList()));
+                            }
+                        }, true);
+                ui.access(() -> {
+                    if (generation == fetchGeneration) {
+                        applyRevalidated(sizeNeeded ? size : dataProviderSize,
+                                items);
+                    }
+                });
+            } catch (UIDetachedException e) {
+                // Revalidated again when attached
+            } catch (Exception e) {
+                LoggerFactory.getLogger(BeanTable.class)
+                        .warn("Could not revalidate data", e);
+                // The cached rows are kept
+                try {
+                    ui.access(() -> {
+                        if (generation == fetchGeneration) {
+                            getElement().removeAttribute("stale");
+                        }
+                    });
+                } catch (UIDetachedException detached) {
+                    // Revalidated again when attached
+                }
+            }
+        });
+    }
+
+    // Only the changed rows are updated if the same items are shown,
+    // otherwise the page is rendered again
+    private void applyRevalidated(int size, List<T> items) {
+        getElement().removeAttribute("stale");
+        int shown = pageLength > 0 ? Math.min(items.size(), pageLength)
+                : items.size();
+        boolean sameItems = size == dataProviderSize && rows.size() == shown;
+        for (int i = 0; sameItems && i < rows.size(); i++) {
+            sameItems = Objects.equals(rows.get(i).getItemId(),
+                    getItemId(items.get(i)));
+        }
+        if (!sameItems) {
+            fetchResult = new FetchResult<>(size, items, null);
+            reset(false);
+            return;
+        }
+        boolean changed = false;
+        for (int i = 0; i < rows.size(); i++) {
+            RowItem<T> rowItem = rows.get(i);
+            if (!hasSameValues(rowItem, items.get(i))) {
+                updateRow(rowItem, items.get(i));
+                changed = true;
+            }
+        }
+        if (changed) {
+            aggregatesDirty = true;
+            updateAggregateRow();
+        }
+    }
+
+    // Released items are compared by the hash of the rendered values instead
+    // of fetching them again
+    private boolean hasSameValues(RowItem<T> rowItem, T other) {
+        if (rowItem.item == null) {
+            return rowItem.getValuesHash() == getValues(other).hashCode();
+        }
+        return columns.stream().filter(column -> column.valueProvider != null)
+                .allMatch(column -> Objects.equals(
+                        column.valueProvider.apply(rowItem.item),
+                        column.valueProvider.apply(other)));
+    }
+
+    // Rendered values of the item, components are not compared
+    private List<Object> getValues(T item) {
+        List<Object> values = new ArrayList<>();
+        columns.forEach(column -> {
+            Object value = column.getComponentProvider() == null
+                    ? column.getValueProvider().apply(item)
+                    : null;
+            values.add(value == null ? "" : value);
+        });
+        return values;
+    }
+
+    private boolean isStalePageKept() {
+        return fetchPolicy != null && fetchPolicy.isStalePageShown()
+                && !rows.isEmpty();
+    }
+
+    // Keep the previous rows, the page is reverted to the shown one
+    private void showStalePage(Exception e) {
+        LoggerFactory.getLogger(BeanTable.class)
+                .warn("Could not fetch data, showing stale rows", e);
+        getElement().setAttribute("stale", true);
+        if (renderedPage >= 0 && pageLength > 0) {
+            currentPage = renderedPage;
+            updateFooter();
+        }
+    }
+
+    private boolean isFetchedInBackground() {
+        return fetchExecutor != null
+                && !(getDataProvider() instanceof ListDataProvider)
+                && getUI().isPresent();
+    }
+
+    // Fetch the size and the items in the executor. Each fetch is tagged with
+    // a generation, a newer reset cancels the pending fetch and the result is
+    // applied in UI.access only if it is still the latest one.
+    private void fetchInBackground(boolean refresh) {
+        long generation = ++fetchGeneration;
+        cancelPendingFetch();
+        boolean countUnknown = isCountUnknown();
+        boolean sizeNeeded = isSizeNeeded(countUnknown);
+        int estimate = sizeNeeded ? getSizeEstimate() : -1;
+        // Queries are created from the state captured in the UI thread
+        Query sizeQuery = new Query(filter);
+        SerializableFunction<Integer, Query> pageQuery = createPageQueryFactory(
+                countUnknown);
+        KeysetPage keysetPage = createKeysetPage(getPagingDirection(),
+                countUnknown);
+        FetchContext<T> context = new FetchContext<>(this);
+        UI ui = getUI().get();
+        getElement().setAttribute("aria-busy", "true");
+        pendingFetch = new FutureTask<>(() -> {
+            // Superseded before started
+            if (generation != fetchGeneration) {
+                return;
+            }
+            FetchResult<T> result;
+            try {
+                int size = sizeNeeded && estimate < 0
+                        ? fetchSize(context, sizeQuery, CacheRead.BACKGROUND)
+                        : estimate;
+                try (Stream<T> stream = fetchPageWithPolicy(context,
+                        pageQuery.apply(size), keysetPage,
+                        CacheRead.BACKGROUND)) {
+                    result = new FetchResult<>(size,
+                            stream.collect(Collectors.toList()), null);
+                }
+            } catch (Exception e) {
+                if (generation != fetchGeneration) {
+                    return;
+                }
+                result = new FetchResult<>(-1, null, e);
+            }
+            FetchResult<T> fetched = result;
+            ui.access(() -> {
+                if (generation == fetchGeneration) {
+                    pendingFetch = null;
+                    fetchResult = fetched;
+                    getElement().removeAttribute("aria-busy");
+                    reset(refresh);
+                }
+            });
+        }, null);
+        fetchExecutor.execute(pendingFetch);
+    }
+
+    private void cancelPendingFetch() {
+        if (pendingFetch != null) {
+            pendingFetch.cancel(true);
+            pendingFetch = null;
+        }
+    }
+
+    // How the cached results are used when fetching
+    private enum CacheRead {
+        CACHE, CACHE_ONLY, BACKGROUND;
+    }
+
+    // The result was not cached, thrown in the cache only mode
+    private static class CacheMissException extends RuntimeException {
+    }
+
+    // Result of the background fetch
+    private static class FetchResult<T> {
+        private final int size;
+        private final List<T> items;
+        private final Exception error;
+
+        FetchResult(int size, List<T> items, Exception error) {
+            this.size = size;
+            this.items = items;
+            this.error = error;
+        }
+
+        Stream<T> stream() throws Exception {
+            if (error != null) {
+                throw error;
+            }
+            return items.stream();
+        }
+    }
+
+    private boolean isRowLimitReached() {
+        return pageLength < 0 && unpagedRowLimit > 0
+                && rows.size() >= unpagedRowLimit;
+    }
+
+    private boolean isPagedOnRowLimit() {
+        return rowLimitExceeded && rowLimitMode == RowLimitMode.PAGED;
+    }
+
+    // The progressively rendered rows exceeded the limit, the rendered items
+    // and the next one are used as the first page
+    private void switchToPagedMode() {
+        List<T> items = rows.stream().map(RowItem::getItem)
+                .collect(Collectors.toList());
+        if (progressiveIterator != null && progressiveIterator.hasNext()) {
+            items.add(progressiveIterator.next());
+        }
+        stopProgressiveRendering();
+        switchToPagedMode(items);
+    }
+
+    // The unpaged row limit was exceeded, continue in paged mode using the
+    // limit as the page length. The fetched items, including the one over the
+    // limit, are rendered as the first page without fetching it again.
+    private void switchToPagedMode(List<T> items) {
+        LoggerFactory.getLogger(BeanTable.class).info(
+                "Row limit {} exceeded, switching to paged mode",
+                unpagedRowLimit);
+        pageLength = unpagedRowLimit;
+        currentPage = 0;
+        renderedPage = -1;
+        try {
+            int size = isSizeNeeded(isCountUnknown())
+                    ? fetchSize(CacheRead.CACHE)
+                    : -1;
+            fetchResult = new FetchResult<>(size, items, null);
+        } catch (Exception e) {
+            fetchResult = new FetchResult<>(-1, null, e);
+        }
+        reset(false);
+    }
+
+    // Show a notice in the footer when the rows have been truncated by the
+    // unpaged row limit
+    private void updateTruncationNotice() {
+        footerElement.removeAllChildren();
+        if (rowLimitExceeded) {
+            Element rowElement = new Element("tr");
+            Element cell = new Element("td");
+            cell.setAttribute("colspan", "" + (columns.size() + 1));
+            cell.setAttribute("role", "status");
+            cell.getClassList().add("truncated");
+            cell.setText(i18n != null && i18n.getTruncatedProvider() != null
+                    ? i18n.getTruncatedProvider().apply(unpagedRowLimit)
+                    : "Showing first " + unpagedRowLimit + " rows");
+            rowElement.appendChild(cell);
+            footerElement.appendChild(rowElement);
+        }
+    }
+
+    private void fireRowMemoryEstimateEvent() {
+        if (hasListener(RowMemoryEstimateEvent.class)) {
+            int nodes = countRowNodes();
+            fireEvent(new RowMemoryEstimateEvent<>(this, rows.size(), nodes,
+                    (long) nodes * ESTIMATED_BYTES_PER_NODE
+                            + (long) getRetainedIdCount()
+                                    * ESTIMATED_BYTES_PER_ID,
+                    rowLimitExceeded, getRetainedItemCount()));
+        }
+    }
+
+    // Number of the elements in the rendered rows including the cells and
+    // their content
+    int countRowNodes() {
+        int nodes = 0;
+        for (RowItem<T> row : rows) {
+            nodes += countNodes(row.getRowElement());
+        }
+        return nodes;
+    }
+
+    // Number of the items kept by the table between the requests
+    int getRetainedItemCount() {
+        return compactMode ? 0 : rows.size() + selected.size();
+    }
+
+    private int getRetainedIdCount() {
+        return compactMode ? rows.size() + selectedIds.size() : 0;
+    }
+
+    private static int countNodes(Element element) {
+        int nodes = 1;
+        for (int i = 0; i < element.getChildCount(); i++) {
+            nodes += countNodes(element.getChild(i));
+        }
+        return nodes;
+    }
+
+    // Render rows from the progressive stream until the time budget of the
+    // chunk has been used, at least one row is rendered. Returns true if
+    // there are more rows to render.
+    private boolean renderChunk() {
+        long deadline = System.nanoTime() + progressiveTimeBudget.toNanos();
+        int rendered = 0;
+        while (progressiveIterator.hasNext() && !isRowLimitReached()
+                && (rendered == 0 || System.nanoTime() < deadline)) {
+            addRow(createRow(progressiveIterator.next()), rows.size());
+            rendered++;
+        }
+        if (isRowLimitReached() && progressiveIterator.hasNext()) {
+            rowLimitExceeded = true;
+            return false;
+        }
+        return progressiveIterator.hasNext();
+    }
+
+    // Schedule the next chunk to be rendered in a later UI.access so that it
+    // is pushed to the client separately
+    private void scheduleNextChunk() {
+        Iterator<T> iterator = progressiveIterator;
+        Executor executor = progressiveExecutor != null ? progressiveExecutor
+                : ForkJoinPool.commonPool();
+        getUI().ifPresent(ui -> executor.execute(() -> ui.access(() -> {
+            // Skip if superseded by a newer reset
+            if (progressiveIterator == iterator) {
+                renderNextChunk();
+            }
+        })));
+    }
+
+    // Package protected to enable unit testing
+    void renderNextChunk() {
+        if (progressiveIterator == null) {
+            return;
+        }
+        try {
+            if (renderChunk()) {
+                scheduleNextChunk();
+                return;
+            }
+            if (isPagedOnRowLimit()) {
+                switchToPagedMode();
+                return;
+            }
+            stopProgressiveRendering();
+            setNoData();
+            updateTruncationNotice();
+            updateAggregateRow();
+        } catch (Exception e) {
+            stopProgressiveRendering();
+            setError();
+            LoggerFactory.getLogger(BeanTable.class)
+                    .error("Could not fetch data", e);
+        }
+        lastFetchedDataSize = rows.size();
+        getElement().setAttribute("aria-rowcount", rowLimitExceeded ? "-1"
+                : String.valueOf(lastFetchedDataSize));
+        fireSizeEvent();
+        fireRowMemoryEstimateEvent();
+    }
+
+    private void stopProgressiveRendering() {
+        if (progressiveStream != null) {
+            progressiveStream.close();
+        }
+        progressiveStream = null;
+        progressiveIterator = null;
+    }
+
+    /**
+     * Set the cache of the query results shared by the tables of all the
+     * sessions, e.g. for read heavy reports where many users open the same
+     * pages. The cache is used when also the provider id has been set, see
+     * {@link #setProviderId(String)}. Refreshing all the data of the data
+     * provider invalidates the cached results of the provider id, otherwise
+     * the results are reused until they expire. In memory data is not cached.
+     * 
+     * @see InMemoryPageCache
+     * @param pageCache
+     *            The cache, null to disable caching
+     */
+    public void setPageCache(PageCache pageCache) {
+        this.pageCache = pageCache;
+    }
+
+    /**
+     * Get the cache of the query results.
+     * 
+     * @return The cache, null if not set
+     */
+    public PageCache getPageCache() {
+        return pageCache;
+    }
+
+    /**
+     * Enable stale while revalidate mode. The page is rendered immediately
+     * from the cache if the cached result is younger than the maximum age,
+     * and the table has the attribute "stale" until the page has been fetched
+     * again in the background. Then only the changed rows are updated, or
+     * the page is rendered again if the items have changed. This suits data
+     * that tolerates seconds of staleness, e.g. stock levels. Pages older
+     * than the maximum age are fetched as usual.
+     * <p>
+     * The page cache set with {@link #setPageCache(PageCache)} is used with
+     * the provider id, otherwise the table uses a cache of its own. The
+     * revalidation uses the executor set with
+     * {@link #setFetchExecutor(Executor)} or the common pool. Server push
+     * needs to be enabled for the revalidated rows to be shown without user
+     * interaction. In memory data is not cached.
+     * 
+     * @param maxAge
+     *            Maximum age of the rendered cached result, null to disable
+     */
+    public void setStaleWhileRevalidate(Duration maxAge) {
+        this.staleMaxAge = maxAge;
+        if (maxAge != null) {
+            localPageCache = new InMemoryPageCache(STALE_CACHE_SIZE, maxAge);
+            localCacheId = "bean-table-" + UUID.randomUUID();
+        } else {
+            localPageCache = null;
+            localCacheId = null;
+        }
+    }
+
+    /**
+     * Get the maximum age of the cached result in stale while revalidate
+     * mode.
+     * 
+     * @return The maximum age, null if the mode is not enabled
+     */
+    public Duration getStaleWhileRevalidate() {
+        return staleMaxAge;
+    }
+
+    /**
+     * Set the compact mode, which reduces the memory retained by the table
+     * in the session. In compact mode the rows keep only the ids of the items
+     * and the rendered elements between the requests, and the selection is
+     * kept as ids. The items are fetched again from the data provider when
+     * they are needed, e.g. for {@link ItemClickedEvent},
+     * {@link #getSelected()} or the item lookup of the data views. Use
+     * {@link #addRowMemoryEstimateListener(ComponentEventListener)} for
+     * reporting the retained size.
+     * <p>
+     * Note: The data provider must be a {@link ListDataProvider} or implement
+     * {@link ItemLookupDataProvider}, and it must implement
+     * {@link DataProvider#getId(Object)} or the beans need to implement
+     * equals and hashCode based on the id. The items of a back end data
+     * provider are resolved with the query of the rendered page and, for the
+     * items not found there, with
+     * {@link ItemLookupDataProvider#fetchByIds(Collection)}.
+     * {@link BeanTableSelectionChangedEvent} fetches the selected items only
+     * when requested, use
+     * {@link BeanTableSelectionChangedEvent#getSelectedIds()} to avoid it.
+     * Components created by the component columns may still hold references
+     * to the items.
+     * 
+     * @param compactMode
+     *            Boolean value, false by default
+     * @throws IllegalStateException
+     *             if the data provider can't fetch the items by id
+     */
+    public void setCompactMode(boolean compactMode) {
+        if (this.compactMode == compactMode) {
+            return;
+        }
+        if (compactMode) {
+            checkCompactModeSupported(getDataProvider());
+            selection().forEach(item -> selectedIds.add(getItemId(item)));
+            selected.clear();
+            getKeyMapper().removeAll();
+            this.compactMode = true;
+            scheduleItemRelease();
+        } else {
+            selected = new HashSet<>(getSelected());
+            selectedIds.clear();
+            this.compactMode = false;
+        }
+    }
+
+    /**
+     * Get whether the compact mode is enabled.
+     * 
+     * @return Boolean value
+     */
+    public boolean isCompactMode() {
+        return compactMode;
+    }
+
+    // In compact mode the items of the rows are released before the
+    // response, so that only the ids are kept between the requests
+    private void scheduleItemRelease() {
+        if (compactMode && !releasePending) {
+            releasePending = true;
+            runBeforeClientResponse(ui -> {
+                releasePending = false;
+                if (compactMode) {
+                    rows.forEach(RowItem::releaseItem);
+                }
+            });
+        }
+    }
+
+    // Fetch the released items of all the rows at once
+    private void resolveRowItems() {
+        List<Object> ids = rows.stream().filter(row -> row.item == null)
+                .map(RowItem::getItemId).collect(Collectors.toList());
+        Map<Object, T> items = resolveItems(ids);
+        rows.forEach(row -> {
+            if (row.item == null && items.containsKey(row.getItemId())) {
+                row.resolveItem(items.get(row.getItemId()));
+            }
+        });
+        scheduleItemRelease();
+    }
+
+    // Fetch the items by ids from the data provider. The rendered page is
+    // tried first, the rest are looked up by the ids if the data provider
+    // supports it. The back end data is never scanned.
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Map<Object, T> resolveItems(Collection<Object> ids) {
+        Map<Object, T> items = new HashMap<>();
+        Set<Object> missing = new HashSet<>(ids);
+        if (missing.isEmpty()) {
+            return items;
+        }
+        if (getDataProvider() instanceof ListDataProvider listDataProvider) {
+            // Id to position map of the snapshot is built once
+            return inMemoryPager.getItems(listDataProvider, missing,
+                    this::getItemId);
+        }
+        synchronized (dataProvider) {
+            if (renderedPage >= 0 && !rows.isEmpty()) {
+                int offset = pageLength < 0 ? 0 : renderedPage * pageLength;
+                collectItems(getDataProvider()
+                        .fetch(createQuery(offset, rows.size())), missing,
+                        items);
+            }
+            if (!missing.isEmpty() && getDataProvider() instanceof
+                    ItemLookupDataProvider lookup) {
+                collectItems(lookup.fetchByIds(new ArrayList<>(missing)),
+                        missing, items);
+            }
+        }
+        return items;
+    }
+
+    private void collectItems(Stream<T> stream, Set<Object> missing,
+            Map<Object, T> items) {
+        try (stream) {
+            Iterator<T> iterator = stream.iterator();
+            while (!missing.isEmpty() && iterator.hasNext()) {
+                T item = iterator.next();
+                Object id = getItemId(item);
+                if (missing.remove(id)) {
+                    items.put(id, item);
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the id of the data provider. The tables having the same provider id
+     * are expected to show the same data with the same filter, thus they can
+     * share the query results. Identical queries running at the same time,
+     * e.g. when many users open the same report, are sent to the data
+     * provider only once and the other tables wait for the result. The
+     * results are also shared by the page cache, see
+     * {@link #setPageCache(PageCache)}.
+     * <p>
+     * Note: The items of a shared result are the same instances in all the
+     * sessions, also without the page cache, so they must not be modified.
+     * 
+     * @param providerId
+     *            The id, null if the results are not shared
+     */
+    public void setProviderId(String providerId) {
+        this.providerId = providerId;
+    }
+
+    /**
+     * Get the id of the data provider.
+     * 
+     * @return The id, null if not set
+     */
+    public String getProviderId() {
+        return providerId;
+    }
+
+    /**
+     * Set the policy used when fetching the data from the data provider, e.g.
+     * timeout, retries with backoff, circuit breaker and keeping the stale
+     * rows shown when the fetch fails.
+     * 
+     * @see FetchPolicy
+     * @param fetchPolicy
+     *            The policy, null to fetch without a policy
+     */
+    public void setFetchPolicy(FetchPolicy fetchPolicy) {
+        this.fetchPolicy = fetchPolicy;
+    }
+
+    /**
+     * Get the policy used when fetching the data from the data provider.
+     * 
+     * @return The policy, null if not set
+     */
+    public FetchPolicy getFetchPolicy() {
+        return fetchPolicy;
+    }
+
+    /**
+     * Fetch the data in the background using the executor instead of the
+     * request thread. Each fetch is tagged with a generation number, when the
+     * page, filter or sorting changes before the fetch has completed, the
+     * pending fetch is cancelled and its result is discarded. Thus rapid
+     * navigation or typing into a filter causes only one back end query for
+     * the final state, and an older page is never shown over a newer one.
+     * The previous rows are shown until the new ones are rendered, the table
+     * has the attribute aria-busy meanwhile.
+     * <p>
+     * Note: Server push or polling needs to be enabled for the fetched rows to
+     * be shown without user interaction. In memory data is always fetched in
+     * the request thread.
+     * 
+     * @param executor
+     *            Executor used for fetching, null to fetch in the request
+     *            thread
+     */
+    public void setFetchExecutor(Executor executor) {
+        this.fetchExecutor = executor;
+    }
+
+    /**
+     * Get the executor used for fetching the data in the background.
+     * 
+     * @return The executor, null if the data is fetched in the request thread
+     */
+    public Executor getFetchExecutor() {
+        return fetchExecutor;
+    }
+
+    /**
+     * Enable progressive rendering in non paged mode. The first chunk of rows
+     * is rendered immediately and further chunks are rendered in later
+     * {@link UI#access(com.vaadin.flow.server.Command)} batches. Each chunk
+     * renders rows until the time budget has been used. Thus time to the first
+     * row does not depend on the size of the data.
+     * <p>
+     * Note: Server push or polling needs to be enabled for the later chunks to
+     * be shown without user interaction. The stream of the data provider is
+     * kept open until the last chunk has been rendered.
+     * 
+     * @param timeBudget
+     *            Time budget of a chunk, null to disable progressive rendering
+     */
+    public void setProgressiveRendering(Duration timeBudget) {
+        setProgressiveRendering(timeBudget, null);
+    }
+
+    /**
+     * Enable progressive rendering in non paged mode.
+     * 
+     * @see #setProgressiveRendering(Duration)
+     * @param timeBudget
+     *            Time budget of a chunk, null to disable progressive rendering
+     * @param executor
+     *            Executor used to schedule the chunks, null to use the common
+     *            ForkJoinPool
+     */
+    public void setProgressiveRendering(Duration timeBudget,
+            Executor executor) {
+        this.progressiveTimeBudget = timeBudget;
+        this.progressiveExecutor = executor;
+    }
+
+    // Count-free paging, the item count estimate is grown by the estimate
+    // increase when the user pages forward. Exact count is known when the
+    // last page has been reached.
+    private void updateItemCountEstimate(int fetched, boolean hasNext) {
+        int end = (pageLength * currentPage) + fetched;
+        if (!hasNext) {
+            itemCountKnown = true;
+            dataProviderSize = end;
+        } else {
+            itemCountKnown = false;
+            hasNextPage = true;
+            BeanTableLazyDataView<T> view = getLazyDataView();
+            int increase = view.getItemCountEstimateIncrease() > 0
+                    ? view.getItemCountEstimateIncrease()
+                    : pageLength;
+            int estimate = Math.max(view.getItemCountEstimate(), 0);
+            while (estimate <= end) {
+                estimate += increase;
+            }
+            view.updateItemCountEstimate(estimate);
+            dataProviderSize = estimate;
+        }
     }
 
-    // Conditionally sets an informative message for the user if there has been
-    // no data fetched.
-    private void setNoData() {
-        if (rows.isEmpty()) {
-            bodyElement.setText("");
-            Element row = new Element("tr");
-            Element cell = createAlertCell();
-            cell.getClassList().add("no-data");
-            cell.setText(i18n != null && i18n.getNoDataText() != null
-                    ? i18n.getNoDataText()
-                    : "No data");
-            row.appendChild(cell);
-            bodyElement.appendChild(row);
+    // Query with the current sorting and filter, the keys of the visible
+    // columns are passed as a projection hint
+    @SuppressWarnings("unchecked")
+    private Query createQuery(int offset, int limit) {
+        return new ProjectionQuery(offset, limit,
+                new ArrayList<>(backEndSorting), inMemorySorting, filter,
+                getVisibleProperties());
+    }
+
+    /**
+     * Get the keys of the visible columns, which are passed to the data
+     * provider in {@link ProjectionQuery}.
+     * <p>
+     * Note: Only a data provider set directly to the table receives the
+     * ProjectionQuery. Wrappers such as
+     * {@link DataProvider#withConfigurableFilter()} pass a plain Query to the
+     * wrapped data provider, so the visible properties are lost.
+     * 
+     * @return Set of keys in the column order
+     */
+    public Set<String> getVisibleProperties() {
+        Set<String> properties = new LinkedHashSet<>();
+        columns.stream().filter(column -> column.isVisible())
+                .map(Column::getKey).filter(Objects::nonNull)
+                .forEach(properties::add);
+        return properties;
+    }
+
+    // Fetch the page using keyset pagination when the data provider supports
+    // it and the page is adjacent to the current one, otherwise by offset
+    @SuppressWarnings("unchecked")
+    private Stream<T> fetchPage(DataProvider<T, ?> dataProvider, Query query,
+            KeysetPage keysetPage) {
+        if (keysetPage != null
+                && dataProvider instanceof KeysetDataProvider keyset) {
+            return keysetPage.next
+                    ? keyset.fetchAfter(keysetPage.query, keysetPage.key)
+                    : keyset.fetchBefore(keysetPage.query, keysetPage.key);
         }
+        return fetchFromProvider(dataProvider, query);
     }
 
-    // Called when data fetch failed, add an informative error for the user
-    private void setError() {
-        bodyElement.setText("");
-        Element row = new Element("tr");
-        Element cell = createAlertCell();
-        cell.getClassList().add("error-occurred");
-        cell.setText(i18n != null && i18n.getErrorText() != null
-                ? i18n.getErrorText()
-                : "Failed fetching data");
-        row.appendChild(cell);
-        bodyElement.appendChild(row);
+    // Keyset query and the key of the first or the last rendered row
+    @SuppressWarnings("rawtypes")
+    private static class KeysetPage implements Serializable {
+        private final boolean next;
+        private final Object key;
+        private final Query query;
+
+        KeysetPage(boolean next, Object key, Query query) {
+            this.next = next;
+            this.key = key;
+            this.query = query;
+        }
     }
 
-    private Element createAlertCell() {
-        Element cell = new Element("td");
+    // In memory data is paged using the cached permutation of the filtered
+    // and sorted items
+    @SuppressWarnings("unchecked")
+    private Stream<T> fetchFromProvider(Query query) {
+        return fetchFromProvider(getDataProvider(), query);
+    }
 
-        cell.setAttribute("colspan", "" + (columns.size() + 1));
-        cell.setAttribute("aria-live", "assertive");
-        cell.setAttribute("role", "alert");
-        return cell;
+    @SuppressWarnings("unchecked")
+    private Stream<T> fetchFromProvider(DataProvider<T, ?> dataProvider,
+            Query query) {
+        if (dataProvider instanceof ListDataProvider listDataProvider) {
+            return inMemoryPager.fetch(listDataProvider, query);
+        }
+        return dataProvider.fetch(query);
     }
 
-    void reset(boolean refresh) {
-        if (!refresh) {
-            bodyElement.setText("");
-            rows = new ArrayList<>();
+    @SuppressWarnings("unchecked")
+    private int sizeFromProvider(DataProvider<T, ?> dataProvider,
+            Query query) {
+        if (dataProvider instanceof ListDataProvider listDataProvider) {
+            return inMemoryPager.size(listDataProvider, query);
         }
-        keyMapper.removeAll();
-        Query query = null;
-        if (pageLength < 0) {
-            query = new Query();
-        } else {
-            int estimate = -1;
-            if (getDataProvider() instanceof BackEndDataProvider) {
-                estimate = getLazyDataView().getItemCountEstimate();
-            }
-            synchronized (dataProvider) {
-                dataProviderSize = estimate < 0
-                        ? getDataProvider().size(new Query(filter))
-                        : estimate;
-            }
-            int offset = pageLength * currentPage;
-            if (dataProviderSize < offset) {
-                currentPage = Math.floorDiv(dataProviderSize, pageLength);
-                offset = currentPage * pageLength;
-            }
-            updateFooter();
-            query = new Query(offset, pageLength, backEndSorting,
-                    inMemorySorting, filter);
+        return dataProvider.size(query);
+    }
+
+    // The direction of the page change compared to the currently rendered
+    // page, keys of the rendered page can be used only for adjacent pages
+    private PagingDirection getPagingDirection() {
+        if (pageLength < 0 || renderedPage < 0) {
+            return PagingDirection.NONE;
+        } else if (currentPage == renderedPage + 1) {
+            return PagingDirection.NEXT;
+        } else if (currentPage == renderedPage - 1) {
+            return PagingDirection.PREVIOUS;
         }
-        synchronized (dataProvider) {
-            final AtomicInteger itemCounter = new AtomicInteger(0);
-            boolean error = false;
-            try {
-                getDataProvider().fetch(query).map(row -> createRow((T) row))
-                        .forEach(rowItem -> {
-                            addRow((BeanTable<T>.RowItem<T>) rowItem,
-                                    (currentPage * pageLength)
-                                            + itemCounter.get());
-                            itemCounter.incrementAndGet();
-                        });
-            } catch (Exception e) {
-                setError();
-                error = true;
-                LoggerFactory.getLogger(BeanTable.class)
-                        .error("Could not fetch data");
-                e.printStackTrace();
-            }
-            if (!error) {
-                setNoData();
-            }
-            lastFetchedDataSize = itemCounter.get();
-            if (pageLength < 0) {
-                getElement().setAttribute("aria-rowcount",
-                        String.valueOf(lastFetchedDataSize));
-            } else {
-                getElement().setAttribute("aria-rowcount",
-                        String.valueOf(dataProviderSize));
-            }
-            if (sizeRequest == null) {
-                sizeRequest = ui -> {
-                    fireSizeEvent();
-                    sizeRequest = null;
-                };
-                // Size event is fired before client response so as to avoid
-                // multiple size change events during server round trips
-                runBeforeClientResponse(sizeRequest);
-            }
+        return PagingDirection.NONE;
+    }
+
+    // Remember the keys of the first and the last row of the current page
+    // for keyset pagination
+    @SuppressWarnings("unchecked")
+    private void updateKeys() {
+        if (getDataProvider() instanceof KeysetDataProvider keyset
+                && !rows.isEmpty()) {
+            firstKey = keyset.getKey(rows.get(0).getItem());
+            lastKey = keyset.getKey(rows.get(rows.size() - 1).getItem());
+        } else {
+            firstKey = null;
+            lastKey = null;
         }
     }
 
+    // Get the item from the rendered rows if it is on the current page,
+    // otherwise fetch it with a single offset query
     protected T fetchItem(int index) {
-        Query query = new Query(index, 1, backEndSorting, inMemorySorting,
-                filter);
-        Optional<T> result = getDataProvider().fetch(query).findFirst();
+        T item = getRenderedItem(index);
+        if (item != null) {
+            return item;
+        }
+        Query query = createQuery(index, 1);
+        Optional<T> result = fetchFromProvider(query).findFirst();
         return result.isPresent() ? result.get() : null;
     }
 
+    // Error of the data views for an index outside of the filtered data,
+    // the size is queried only for the message and not in count free mode
+    @SuppressWarnings("unchecked")
+    IndexOutOfBoundsException indexOutOfBounds(int index) {
+        if (isCountUnknown()) {
+            return new IndexOutOfBoundsException(String.format(
+                    "Given index %d is outside of the data", index));
+        }
+        int dataSize = sizeFromProvider(getDataProvider(), new Query(filter));
+        if (dataSize == 0) {
+            return new IndexOutOfBoundsException(
+                    String.format("Requested index %d on empty data.", index));
+        }
+        return new IndexOutOfBoundsException(String.format(
+                "Given index %d is outside of the accepted range '0 - %d'",
+                index, dataSize - 1));
+    }
+
+    // Batch version of fetchItem, the items which are not on the current page
+    // are fetched with one range query when they are close to each other.
+    // Missing items are null in the result.
+    @SuppressWarnings("unchecked")
+    protected List<T> fetchItems(int... indexes) {
+        List<T> result = new ArrayList<>(indexes.length);
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < indexes.length; i++) {
+            T item = getRenderedItem(indexes[i]);
+            result.add(item);
+            if (item == null && indexes[i] >= 0) {
+                missing.add(i);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        int min = missing.stream().mapToInt(i -> indexes[i]).min().getAsInt();
+        int max = missing.stream().mapToInt(i -> indexes[i]).max().getAsInt();
+        if (max - min < Math.max(pageLength, MAX_BATCH_FETCH_SPAN)) {
+            Query query = createQuery(min, max - min + 1);
+            List<T> range = fetchFromProvider(query)
+                    .collect(Collectors.toList());
+            missing.forEach(i -> {
+                int rangeIndex = indexes[i] - min;
+                if (rangeIndex < range.size()) {
+                    result.set(i, range.get(rangeIndex));
+                }
+            });
+        } else {
+            missing.forEach(i -> result.set(i, fetchItem(indexes[i])));
+        }
+        return result;
+    }
+
+    // Returns the item with the index if it is in the rendered rows and they
+    // are up to date, otherwise null
+    private T getRenderedItem(int index) {
+        if (resetPending || renderedPage < 0) {
+            return null;
+        }
+        int offset = pageLength < 0 ? 0 : renderedPage * pageLength;
+        int rowIndex = index - offset;
+        if (rowIndex >= 0 && rowIndex < rows.size()) {
+            return rows.get(rowIndex).getItem();
+        }
+        return null;
+    }
+
     /**
      * Return the currently used data provider.
      * 
@@ -1201,7 +3553,7 @@ public class BeanTable<T> extends HtmlComponent
         return dataProvider.get();
     }
 
-    private Object getItemId(T item) {
+    Object getItemId(T item) {
         if (getDataProvider() == null) {
             return item;
         }
@@ -1228,11 +3580,33 @@ public class BeanTable<T> extends HtmlComponent
                 && dataProviderListenerRegistration == null) {
             setupDataProviderListener(getDataProvider());
         }
+        // Background fetch was cancelled when detached
+        if (fetchExecutor != null && renderedPage < 0 && !resetPending
+                && getDataProvider() != null) {
+            requestReset();
+        }
+        // Revalidation was abandoned when detached
+        if (getElement().hasAttribute("stale") && getDataProvider() != null
+                && renderedPage >= 0) {
+            revalidate(isCountUnknown());
+        }
         enableKeyboardNavigation();
     }
 
     @Override
     protected void onDetach(DetachEvent detachEvent) {
+        stopProgressiveRendering();
+        // The scheduled flush is not run when the UI is detached
+        flushRefreshes();
+        if (getElement().hasAttribute("stale")) {
+            fetchGeneration++;
+        }
+        if (pendingFetch != null) {
+            fetchGeneration++;
+            cancelPendingFetch();
+            getElement().removeAttribute("aria-busy");
+            renderedPage = -1;
+        }
         if (dataProviderListenerRegistration != null) {
             dataProviderListenerRegistration.remove();
             dataProviderListenerRegistration = null;
@@ -1299,7 +3673,7 @@ public class BeanTable<T> extends HtmlComponent
     public BeanTableListDataView<T> getListDataView() {
         return new BeanTableListDataView<>(this::getDataProvider, this,
                 this::identifierProviderChanged,
-                (filter, sorting) -> reset(true));
+                (filter, sorting) -> requestReset());
     }
 
     @Override
@@ -1314,7 +3688,87 @@ public class BeanTable<T> extends HtmlComponent
 
     private void identifierProviderChanged(
             IdentifierProvider<T> identifierProvider) {
-        keyMapper.setIdentifierGetter(identifierProvider);
+        this.identifierProvider = identifierProvider;
+        getKeyMapper().setIdentifierGetter(identifierProvider);
+    }
+
+    // Key mapper is not serialized, it is created again when needed
+    private KeyMapper<T> getKeyMapper() {
+        if (keyMapper == null) {
+            keyMapper = new KeyMapper<>(this::getItemId);
+            if (identifierProvider != null) {
+                keyMapper.setIdentifierGetter(identifierProvider);
+            }
+        }
+        return keyMapper;
+    }
+
+    // Selection of a deserialized table is fetched by the ids when needed
+    private Set<T> selection() {
+        if (unresolvedSelection != null) {
+            Set<Object> ids = unresolvedSelection;
+            unresolvedSelection = null;
+            Map<Object, T> items = resolveItems(ids);
+            ids.forEach(id -> {
+                if (items.containsKey(id)) {
+                    selected.add(items.get(id));
+                }
+            });
+        }
+        return selected;
+    }
+
+    // The items of the rows, the pending refreshes and the caches are not
+    // serialized. The selection is written as ids if the data provider can
+    // fetch any item by id, otherwise the selected items are written so that
+    // the items not on the rendered page are not lost. Most of the size is
+    // the element tree of the rendered rows, which Flow serializes with the
+    // UI.
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        List<Object> ids = new ArrayList<>();
+        List<T> items = new ArrayList<>();
+        if (unresolvedSelection != null) {
+            ids.addAll(unresolvedSelection);
+        }
+        if (isResolvableById(getDataProvider())) {
+            selected.forEach(item -> ids.add(getItemId(item)));
+        } else {
+            items.addAll(selected);
+        }
+        out.writeObject(ids);
+        out.writeObject(items);
+    }
+
+    private static boolean isResolvableById(DataProvider<?, ?> provider) {
+        return provider instanceof ListDataProvider
+                || provider instanceof ItemLookupDataProvider;
+    }
+
+    // Compact mode keeps only the ids of the selection
+    private static void checkCompactModeSupported(
+            DataProvider<?, ?> provider) {
+        if (!isResolvableById(provider)) {
+            throw new IllegalStateException(
+                    "Compact mode needs ListDataProvider or a data provider implementing ItemLookupDataProvider");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        selected = new HashSet<>();
+        // Refreshes pending in the coalescing window are not serialized, and
+        // the aggregates of the back end are fetched again
+        pendingRefreshes = new LinkedHashMap<>();
+        refreshFlushPending = false;
+        aggregatesDirty = true;
+        List<Object> ids = (List<Object>) in.readObject();
+        if (!ids.isEmpty()) {
+            unresolvedSelection = new LinkedHashSet<>(ids);
+        }
+        selected.addAll((List<T>) in.readObject());
     }
 
     private void runBeforeClientResponse(SerializableConsumer<UI> command) {
@@ -1370,6 +3824,9 @@ public class BeanTable<T> extends HtmlComponent
 
     private String randomId(String prefix, int chars) {
         int limit = (int) (Math.pow(10, chars) - 1);
+        if (rand == null) {
+            rand = new Random();
+        }
         String key = "" + rand.nextInt(limit);
         key = String.format("%" + chars + "s", key).replace(' ', '0');
         return prefix + "-" + key;
@@ -1386,7 +3843,10 @@ public class BeanTable<T> extends HtmlComponent
     }
 
     /**
-     * Set the currently shown page.
+     * Set the currently shown page. If the data has been changed in the same
+     * round trip, e.g. with setItems, the page is checked against the new
+     * size when the page is fetched and a too large page is replaced by the
+     * last page.
      * 
      * @param page
      *            int value base 0
@@ -1395,12 +3855,87 @@ public class BeanTable<T> extends HtmlComponent
      *             acceptable range.
      */
     public void setPage(int page) {
-        if (pageLength < 0 || page < 0
-                || page * pageLength > dataProviderSize) {
+        // The size is not known before the pending reset
+        if (pageLength < 0 || page < 0 || (!resetPending
+                && page * pageLength > dataProviderSize)) {
             throw new IllegalArgumentException("Page does not exists");
         }
         currentPage = page;
-        reset(false);
+        requestReset();
+    }
+
+    /**
+     * Get the page length.
+     * 
+     * @return int value, or -1 if BeanTable is not in paged mode.
+     */
+    public int getPageLength() {
+        return pageLength;
+    }
+
+    /**
+     * Set the safety limit of the rows rendered in non paged mode. When the
+     * data provider returns more items than the limit, the table is either
+     * switched to paged mode with the limit as page length, or the rows are
+     * truncated to the limit and a notice is shown in the footer. The excess
+     * is detected by fetching one extra item, the size of the data is not
+     * queried.
+     * 
+     * @param rowLimit
+     *            Maximum number of the rows, -1 for no limit
+     * @param mode
+     *            What to do when the limit is exceeded, not null
+     */
+    public void setUnpagedRowLimit(int rowLimit, RowLimitMode mode) {
+        Objects.requireNonNull(mode, "RowLimitMode can't be null");
+        this.unpagedRowLimit = rowLimit > 0 ? rowLimit : -1;
+        this.rowLimitMode = mode;
+        if (pageLength < 0) {
+            requestReset();
+        }
+    }
+
+    /**
+     * Enable parallel filtering and sorting of in memory data, i.e. when the
+     * items are set as a collection or ListDataProvider. When the number of
+     * the items is larger than the threshold, the work is split across the
+     * fork join pool. The order of the items is the same as with sequential
+     * processing.
+     * <p>
+     * Note: The filter and the comparators are called from the threads of the
+     * pool, so they must be thread safe and must not depend on
+     * {@link UI#getCurrent()} or other thread local state.
+     * 
+     * @param threshold
+     *            Minimum number of the items processed in parallel, -1 to
+     *            disable
+     * @param pool
+     *            The pool to use, null for the common pool
+     */
+    public void setParallelInMemoryProcessing(int threshold,
+            ForkJoinPool pool) {
+        inMemoryPager.setParallelism(threshold, pool);
+        inMemoryPager.invalidate();
+        requestReset();
+    }
+
+    /**
+     * Get the row limit of the non paged mode.
+     * 
+     * @return int value, -1 if there is no limit
+     */
+    public int getUnpagedRowLimit() {
+        return unpagedRowLimit;
+    }
+
+    /**
+     * Check whether the rows were truncated by the unpaged row limit.
+     * 
+     * @return true if not all the items are shown
+     */
+    public boolean isTruncated() {
+        flushReset();
+        return rowLimitExceeded;
     }
 
     /**
@@ -1418,6 +3953,7 @@ public class BeanTable<T> extends HtmlComponent
      * @return int value.
      */
     public int getRowCount() {
+        flushReset();
         return Integer.valueOf(getElement().getAttribute("aria-rowcount"));
     }
 
@@ -1514,6 +4050,78 @@ public class BeanTable<T> extends HtmlComponent
         NONE, CONTEXT, BUTTON;
     }
 
+    /**
+     * What to do when the data exceeds the row limit of the non paged mode,
+     * see {@link BeanTable#setUnpagedRowLimit(int, RowLimitMode)}.
+     */
+    public enum RowLimitMode {
+        /**
+         * Switch to paged mode using the row limit as page length.
+         */
+        PAGED,
+        /**
+         * Show only the rows up to the limit and a notice in the footer.
+         */
+        TRUNCATE;
+    }
+
+    /**
+     * Aggregate functions of the footer aggregate row, see
+     * {@link Column#setAggregate(AggregateFunction)}. COUNT counts the non
+     * null values, the other functions use the numeric values.
+     */
+    public enum AggregateFunction {
+        SUM, AVG, MIN, MAX, COUNT;
+    }
+
+    /**
+     * Formats of the export, see {@link BeanTable#createExport(ExportFormat)}.
+     */
+    public enum ExportFormat {
+        /**
+         * Comma separated values, values are quoted when needed as specified
+         * by RFC 4180.
+         */
+        CSV(',', "text/csv"),
+        /**
+         * Tab separated values, tabs and line breaks in the values are
+         * replaced with spaces.
+         */
+        TSV('\t', "text/tab-separated-values");
+
+        private final char separator;
+        private final String contentType;
+
+        ExportFormat(char separator, String contentType) {
+            this.separator = separator;
+            this.contentType = contentType;
+        }
+
+        char getSeparator() {
+            return separator;
+        }
+
+        String getContentType() {
+            return contentType;
+        }
+
+        String escape(String value) {
+            if (this == TSV) {
+                return value.replaceAll("[\t\r\n]", " ");
+            }
+            if (value.indexOf(separator) >= 0 || value.indexOf('"') >= 0
+                    || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                return '"' + value.replace("\"", "\"\"") + '"';
+            }
+            return value;
+        }
+    }
+
+    // Direction of the page change, used for keyset pagination
+    private enum PagingDirection {
+        NONE, NEXT, PREVIOUS;
+    }
+
     /**
      * Adds theme variants to the component.
      *
@@ -1563,11 +4171,49 @@ public class BeanTable<T> extends HtmlComponent
 
     /**
      * Get currently selected items.
+     * <p>
+     * Note: In compact mode the items are fetched from the data provider and
+     * the returned set is a copy. Items no longer in the data are omitted.
      * 
      * @return Set of selected items.
+     * @see #setCompactMode(boolean)
      */
     public Set<T> getSelected() {
-        return selected;
+        if (compactMode) {
+            return resolveSelection(selectedIds);
+        }
+        return selection();
+    }
+
+    private Set<T> resolveSelection(Set<Object> ids) {
+        Map<Object, T> items = resolveItems(ids);
+        Set<T> result = new LinkedHashSet<>();
+        ids.forEach(id -> {
+            if (items.containsKey(id)) {
+                result.add(items.get(id));
+            }
+        });
+        return result;
+    }
+
+    private boolean isSelected(T item) {
+        return compactMode ? selectedIds.contains(getItemId(item))
+                : selection().contains(item);
+    }
+
+    // The items of the compact mode selection are fetched only if the
+    // listener requests them
+    private void fireSelectionChanged(boolean fromClient) {
+        if (hasListener(BeanTableSelectionChangedEvent.class)) {
+            if (compactMode) {
+                Set<Object> ids = new LinkedHashSet<>(selectedIds);
+                fireEvent(new BeanTableSelectionChangedEvent<>(this, ids,
+                        () -> resolveSelection(ids), fromClient));
+            } else {
+                fireEvent(new BeanTableSelectionChangedEvent<>(this,
+                        getSelected(), fromClient));
+            }
+        }
     }
 
     /**
@@ -1580,15 +4226,18 @@ public class BeanTable<T> extends HtmlComponent
     public void select(T... items) {
         boolean added = false;
         for (T item : items) {
-            if (!selected.contains(item)) {
-                selected.add(item);
+            if (!isSelected(item)) {
+                if (compactMode) {
+                    selectedIds.add(getItemId(item));
+                } else {
+                    selection().add(item);
+                }
                 added = true;
             }
         }
         if (added) {
-            getDataProvider().refreshAll();
-            fireEvent(new BeanTableSelectionChangedEvent<>(BeanTable.this,
-                    selected, false));
+            rows.forEach(RowItem::updateSelected);
+            fireSelectionChanged(false);
         }
     }
 
@@ -1602,15 +4251,18 @@ public class BeanTable<T> extends HtmlComponent
     public void deselect(T... items) {
         boolean removed = false;
         for (T item : items) {
-            if (selected.contains(item)) {
-                selected.remove(item);
+            if (isSelected(item)) {
+                if (compactMode) {
+                    selectedIds.remove(getItemId(item));
+                } else {
+                    selection().remove(item);
+                }
                 removed = true;
             }
         }
         if (removed) {
-            getDataProvider().refreshAll();
-            fireEvent(new BeanTableSelectionChangedEvent<>(BeanTable.this,
-                    selected, false));
+            rows.forEach(RowItem::updateSelected);
+            fireSelectionChanged(false);
         }
     }
 
@@ -1618,11 +4270,13 @@ public class BeanTable<T> extends HtmlComponent
      * Clear the selection.
      */
     public void deselectAll() {
-        if (!selected.isEmpty()) {
+        if (!selected.isEmpty() || !selectedIds.isEmpty()
+                || unresolvedSelection != null) {
             selected.clear();
-            fireEvent(new BeanTableSelectionChangedEvent<>(BeanTable.this,
-                    selected, false));
-            getDataProvider().refreshAll();
+            selectedIds.clear();
+            unresolvedSelection = null;
+            rows.forEach(RowItem::updateSelected);
+            fireSelectionChanged(false);
         }
     }
 
@@ -1640,7 +4294,7 @@ public class BeanTable<T> extends HtmlComponent
         if (selectionEnabled) {
             getElement().setAttribute("aria-multiselectable", "true");
             rows.forEach(row -> {
-                boolean rowSelected = selected.contains(row.getItem());
+                boolean rowSelected = row.isSelected();
                 row.getRowElement().getChildren()
                         .forEach(cell -> cell.setAttribute("aria-selected",
                                 rowSelected ? "true" : "false"));
@@ -1649,7 +4303,7 @@ public class BeanTable<T> extends HtmlComponent
         } else {
             getElement().setAttribute("aria-multiselectable", "false");
             rows.forEach(row -> {
-                boolean rowSelected = selected.contains(row.getItem());
+                boolean rowSelected = row.isSelected();
                 if (!rowSelected) {
                     row.getRowElement().getChildren().forEach(
                             cell -> cell.removeAttribute("aria-selected"));
@@ -1673,6 +4327,22 @@ public class BeanTable<T> extends HtmlComponent
                 (ComponentEventListener) listener);
     }
 
+    /**
+     * Add RowMemoryEstimateEvent listener to the BeanTable. The event is fired
+     * when the rows have been rendered, and reports the rough memory footprint
+     * of the rendered rows.
+     * 
+     * @param listener
+     *            the listener to add.
+     * @return a registration for the listener
+     */
+    @SuppressWarnings("unchecked")
+    public Registration addRowMemoryEstimateListener(
+            ComponentEventListener<RowMemoryEstimateEvent<BeanTable<T>>> listener) {
+        return ComponentUtil.addListener(this, RowMemoryEstimateEvent.class,
+                (ComponentEventListener) listener);
+    }
+
     /**
      * Add ItemClickedEvent listener to the BeanTable
      * 
@@ -1700,6 +4370,8 @@ public class BeanTable<T> extends HtmlComponent
         private String errorText;
         private String noDataText;
         private SerializableBiFunction<Integer, Integer, String> pageProvider;
+        private SerializableFunction<Integer, String> unknownPageCountProvider;
+        private SerializableFunction<Integer, String> truncatedProvider;
 
         public String getLastPage() {
             return lastPage;
@@ -1766,6 +4438,40 @@ public class BeanTable<T> extends HtmlComponent
             this.pageProvider = provider;
         }
 
+        public SerializableFunction<Integer, String> getUnknownPageCountProvider() {
+            return unknownPageCountProvider;
+        }
+
+        /**
+         * Set the provider for the page text used when the item count is
+         * unknown, see {@link BeanTableLazyDataView#setItemCountUnknown()}.
+         * The parameter is the current page.
+         * 
+         * @param provider
+         *            Function from current page to text
+         */
+        public void setUnknownPageCountProvider(
+                SerializableFunction<Integer, String> provider) {
+            this.unknownPageCountProvider = provider;
+        }
+
+        public SerializableFunction<Integer, String> getTruncatedProvider() {
+            return truncatedProvider;
+        }
+
+        /**
+         * Set the provider for the notice shown when the rows are truncated,
+         * see {@link BeanTable#setUnpagedRowLimit(int, RowLimitMode)}. The
+         * parameter is the row limit.
+         * 
+         * @param provider
+         *            Function from row limit to text
+         */
+        public void setTruncatedProvider(
+                SerializableFunction<Integer, String> provider) {
+            this.truncatedProvider = provider;
+        }
+
         /**
          * Generate the default English localization.
          * 
@@ -1782,6 +4488,10 @@ public class BeanTable<T> extends HtmlComponent
             english.setNoDataText("No data");
             english.setPageProvider((currentPage, lastPage) -> "Page "
                     + currentPage + " of " + lastPage);
+            english.setUnknownPageCountProvider(
+                    currentPage -> "Page " + currentPage + " of many");
+            english.setTruncatedProvider(
+                    rowLimit -> "Showing first " + rowLimit + " rows");
             return english;
         }
     }
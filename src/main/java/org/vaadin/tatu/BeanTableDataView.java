@@ -1,15 +1,17 @@
 package org.vaadin.tatu;
 
+import java.util.List;
+
 import com.vaadin.flow.data.provider.AbstractDataView;
 import com.vaadin.flow.data.provider.DataProvider;
 import com.vaadin.flow.data.provider.IdentifierProvider;
-import com.vaadin.flow.data.provider.Query;
 import com.vaadin.flow.function.SerializableConsumer;
 import com.vaadin.flow.function.SerializableSupplier;
 
 public class BeanTableDataView<T> extends AbstractDataView<T> {
 
     private SerializableConsumer<IdentifierProvider<T>> identifierChangedCallback;
+    private BeanTable<T> beanTable;
 
     /**
      * Constructs a new DataView.
@@ -23,6 +25,7 @@ public class BeanTableDataView<T> extends AbstractDataView<T> {
             SerializableSupplier<DataProvider<T, ?>> dataProviderSupplier,
             BeanTable<T> beanTable) {
         super(dataProviderSupplier, beanTable);
+        this.beanTable = beanTable;
     }
 
     /**
@@ -41,22 +44,44 @@ public class BeanTableDataView<T> extends AbstractDataView<T> {
             BeanTable<T> beanTable,
             SerializableConsumer<IdentifierProvider<T>> identifierChangedCallback) {
         super(dataProviderSupplier, beanTable);
+        this.beanTable = beanTable;
         this.identifierChangedCallback = identifierChangedCallback;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The item is taken from the rendered rows of the BeanTable if it is on
+     * the current page, otherwise it is fetched with a single offset query.
+     */
     @Override
     public T getItem(int index) {
-        final int dataSize = dataProviderSupplier.get().size(new Query<>());
-        if (dataSize == 0) {
-            throw new IndexOutOfBoundsException(
-                    String.format("Requested index %d on empty data.", index));
+        T item = index < 0 ? null : beanTable.fetchItem(index);
+        if (item == null) {
+            throw beanTable.indexOutOfBounds(index);
         }
-        if (index < 0 || index >= dataSize) {
-            throw new IndexOutOfBoundsException(String.format(
-                    "Given index %d is outside of the accepted range '0 - %d'",
-                    index, dataSize - 1));
+        return item;
+    }
+
+    /**
+     * Gets the items at the given indexes. The items on the current page are
+     * taken from the rendered rows of the BeanTable. The rest are fetched,
+     * with a single range query when they are close to each other.
+     *
+     * @param indexes
+     *            the indexes of the items
+     * @return List of items in the order of the indexes
+     * @throws IndexOutOfBoundsException
+     *             if some of the indexes is outside of the data
+     */
+    public List<T> getItems(int... indexes) {
+        List<T> items = beanTable.fetchItems(indexes);
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i) == null) {
+                throw beanTable.indexOutOfBounds(indexes[i]);
+            }
         }
-        return getItems().skip(index).findFirst().orElse(null);
+        return items;
     }
 
     @Override
@@ -1,5 +1,7 @@
 package org.vaadin.tatu;
 
+import java.util.List;
+
 import com.vaadin.flow.data.provider.AbstractDataView;
 import com.vaadin.flow.data.provider.BackEndDataProvider;
 import com.vaadin.flow.data.provider.CallbackDataProvider;
@@ -12,6 +14,7 @@ public class BeanTableLazyDataView<T> extends AbstractDataView<T> implements Laz
     private BeanTable<T> table;
     private int itemCountEstimateIncrease;
     private int itemCountEstimate = -1;
+    private boolean itemCountUnknown;
 
     /**
      * Creates a new lazy data view for grid and verifies the passed data
@@ -30,25 +33,80 @@ public class BeanTableLazyDataView<T> extends AbstractDataView<T> implements Laz
     @Override
     public void setItemCountFromDataProvider() {
         itemCountEstimate = -1;
-        table.reset(false);
+        itemCountUnknown = false;
+        table.requestReset();
     }
 
     @Override
     public void setItemCountEstimate(int itemCountEstimate) {
         this.itemCountEstimate = itemCountEstimate;
-        table.reset(false);
+        itemCountUnknown = false;
+        table.requestReset();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * BeanTable does not query the item count from the data provider in this
+     * mode. Instead one item more than the page length is fetched to detect
+     * whether there is a next page. The item count estimate is grown by
+     * {@link #getItemCountEstimateIncrease()}, or by the page length if not
+     * set, as the user pages forward.
+     */
     @Override
     public void setItemCountUnknown() {
-        itemCountEstimate = -1;
+        itemCountUnknown = true;
+        table.requestReset();
+    }
+
+    /**
+     * Returns true if the item count is unknown, i.e. the table is in count
+     * free paging mode.
+     * 
+     * @see #setItemCountUnknown()
+     * @return Boolean value
+     */
+    public boolean isItemCountUnknown() {
+        return itemCountUnknown;
+    }
+
+    // Used by BeanTable to grow the estimate without reset
+    void updateItemCountEstimate(int itemCountEstimate) {
+        this.itemCountEstimate = itemCountEstimate;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The item is taken from the rendered rows of the BeanTable if it is on
+     * the current page, otherwise it is fetched with a single offset query.
+     */
     @Override
     public T getItem(int index) {
         return table.fetchItem(index);
     }
 
+    /**
+     * Gets the items at the given indexes. The items on the current page are
+     * taken from the rendered rows of the BeanTable. The rest are fetched,
+     * with a single range query when they are close to each other.
+     *
+     * @param indexes
+     *            the indexes of the items
+     * @return List of items in the order of the indexes
+     * @throws IndexOutOfBoundsException
+     *             if some of the indexes is outside of the data
+     */
+    public List<T> getItems(int... indexes) {
+        List<T> items = table.fetchItems(indexes);
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i) == null) {
+                throw table.indexOutOfBounds(indexes[i]);
+            }
+        }
+        return items;
+    }
+
     @Override
     protected Class<?> getSupportedDataProviderType() {
         return BackEndDataProvider.class;
@@ -1,13 +1,17 @@
 package org.vaadin.tatu;
 
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import com.vaadin.flow.component.ComponentEvent;
+import com.vaadin.flow.function.SerializableSupplier;
 
 @SuppressWarnings({ "serial", "rawtypes" })
 public class BeanTableSelectionChangedEvent<R, C extends BeanTable>
         extends ComponentEvent<C> {
     private Set<R> selection;
+    private Set<Object> selectedIds;
+    private SerializableSupplier<Set<R>> resolver;
 
     public BeanTableSelectionChangedEvent(C source, Set<R> selection,
             boolean fromClient) {
@@ -15,7 +19,42 @@ public class BeanTableSelectionChangedEvent<R, C extends BeanTable>
         this.selection = selection;
     }
 
+    // In compact mode the selected items are resolved only when requested
+    BeanTableSelectionChangedEvent(C source, Set<Object> selectedIds,
+            SerializableSupplier<Set<R>> resolver, boolean fromClient) {
+        super(source, fromClient);
+        this.selectedIds = selectedIds;
+        this.resolver = resolver;
+    }
+
+    /**
+     * Get the selected items. In compact mode the items are fetched from the
+     * data provider on the first call, see
+     * {@link BeanTable#setCompactMode(boolean)}.
+     *
+     * @return Set of selected items
+     */
     public Set<R> getSelected() {
+        if (selection == null) {
+            selection = resolver.get();
+            resolver = null;
+        }
         return selection;
     }
-}
\ No newline at end of file
+
+    /**
+     * Get the ids of the selected items. Unlike {@link #getSelected()} this
+     * does not fetch the items in compact mode.
+     *
+     * @return Set of the ids
+     */
+    @SuppressWarnings("unchecked")
+    public Set<Object> getSelectedIds() {
+        if (selectedIds == null) {
+            selectedIds = new LinkedHashSet<>();
+            selection.forEach(
+                    item -> selectedIds.add(getSource().getItemId(item)));
+        }
+        return selectedIds;
+    }
+}
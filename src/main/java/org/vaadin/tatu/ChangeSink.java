@@ -0,0 +1,233 @@
+package org.vaadin.tatu;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.shared.Registration;
+
+/**
+ * Buffer of item level changes applied to BeanTable in batches, see
+ * {@link BeanTable#createChangeSink(java.time.Duration)}. The changes can be
+ * reported from any thread. They are collected until the next flush, which
+ * applies them in one {@link UI#access(com.vaadin.flow.server.Command)}, so
+ * the session is locked and the changes are pushed once per flush interval
+ * instead of once per change.
+ * <p>
+ * Changes of the same item are coalesced, only the latest version of the item
+ * is applied. Updated items are refreshed as with
+ * {@link com.vaadin.flow.data.provider.DataProvider#refreshItem(Object)},
+ * only the affected rows are updated. Inserted and deleted items are expected
+ * to be already stored in the data of the data provider by the application,
+ * e.g. in the backing collection of an in memory data provider, the sink does
+ * not modify the data. The table is refreshed once per flush if there are
+ * inserted or deleted items. A deleted item stays deleted if it is updated
+ * before the flush.
+ * <p>
+ * Note: Server push needs to be enabled for the changes to be shown without
+ * user interaction. The sink is closed when the table is detached.
+ *
+ * @author Tatu Lund
+ *
+ * @param <T>
+ *            Bean type
+ */
+public class ChangeSink<T> implements Serializable {
+
+    private static ScheduledExecutorService flushScheduler;
+
+    private final BeanTable<T> table;
+    private final UI ui;
+    private final Map<Object, Change<T>> pending = new LinkedHashMap<>();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private transient ScheduledFuture<?> flushTask;
+    private Registration detachRegistration;
+    private volatile boolean closed;
+
+    ChangeSink(BeanTable<T> table, UI ui, long flushIntervalMillis,
+            ScheduledExecutorService scheduler) {
+        this.table = table;
+        this.ui = ui;
+        ScheduledExecutorService executor = scheduler != null ? scheduler
+                : getFlushScheduler();
+        flushTask = executor.scheduleAtFixedRate(this::requestFlush,
+                flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        detachRegistration = table.addDetachListener(event -> close());
+    }
+
+    /**
+     * Report an item inserted to the data.
+     *
+     * @param item
+     *            The item, not null
+     */
+    public void insert(T item) {
+        add(ChangeType.INSERT, item);
+    }
+
+    /**
+     * Report an updated item.
+     *
+     * @param item
+     *            The item, not null
+     */
+    public void update(T item) {
+        add(ChangeType.UPDATE, item);
+    }
+
+    /**
+     * Report an item deleted from the data.
+     *
+     * @param item
+     *            The item, not null
+     */
+    public void delete(T item) {
+        add(ChangeType.DELETE, item);
+    }
+
+    /**
+     * Get the number of the changes waiting for the next flush.
+     *
+     * @return Number of changes after coalescing
+     */
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Stop flushing the changes. The pending changes are discarded.
+     */
+    public void close() {
+        closed = true;
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        if (detachRegistration != null) {
+            detachRegistration.remove();
+            detachRegistration = null;
+        }
+        synchronized (pending) {
+            pending.clear();
+        }
+    }
+
+    /**
+     * Check whether the sink has been closed.
+     *
+     * @return true if closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void add(ChangeType type, T item) {
+        if (closed) {
+            return;
+        }
+        Object id = table.getItemId(item);
+        synchronized (pending) {
+            Change<T> previous = pending.get(id);
+            ChangeType merged = type;
+            if (previous != null) {
+                if (previous.type == ChangeType.INSERT
+                        && type == ChangeType.DELETE) {
+                    // Never shown, nothing to apply
+                    pending.remove(id);
+                    return;
+                } else if (previous.type == ChangeType.INSERT) {
+                    merged = ChangeType.INSERT;
+                } else if (previous.type == ChangeType.DELETE
+                        && type == ChangeType.UPDATE) {
+                    // Update of an already deleted item is not applied
+                    return;
+                } else if (previous.type == ChangeType.DELETE
+                        && type == ChangeType.INSERT) {
+                    merged = ChangeType.UPDATE;
+                }
+            }
+            pending.put(id, new Change<>(merged, item));
+        }
+    }
+
+    // Called by the scheduler, at most one flush is queued in the UI at a
+    // time so that a busy UI does not accumulate flushes
+    private void requestFlush() {
+        if (closed || getPendingCount() == 0
+                || !flushQueued.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            ui.access(() -> {
+                flushQueued.set(false);
+                flush();
+            });
+        } catch (UIDetachedException e) {
+            close();
+        }
+    }
+
+    /**
+     * Apply the pending changes to the table. This is done automatically at
+     * the flush interval, and must be called in the UI thread.
+     */
+    public void flush() {
+        List<Change<T>> changes;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            changes = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        List<T> inserted = new ArrayList<>();
+        List<T> updated = new ArrayList<>();
+        List<T> deleted = new ArrayList<>();
+        changes.forEach(change -> {
+            switch (change.type) {
+            case INSERT -> inserted.add(change.item);
+            case UPDATE -> updated.add(change.item);
+            case DELETE -> deleted.add(change.item);
+            }
+        });
+        table.applyChanges(inserted, updated, deleted);
+    }
+
+    static synchronized ScheduledExecutorService getFlushScheduler() {
+        if (flushScheduler == null) {
+            flushScheduler = Executors.newSingleThreadScheduledExecutor(
+                    runnable -> {
+                        Thread thread = new Thread(runnable,
+                                "bean-table-flush");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        return flushScheduler;
+    }
+
+    private enum ChangeType {
+        INSERT, UPDATE, DELETE;
+    }
+
+    private static class Change<T> implements Serializable {
+        private final ChangeType type;
+        private final T item;
+
+        Change(ChangeType type, T item) {
+            this.type = type;
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.vaadin.tatu;
+
+import java.io.Serializable;
+
+/**
+ * Statistics of the values of a BeanTable column over the filtered data, see
+ * {@link BeanTable#computeStatistics(BeanTable.Column)}. The statistics are
+ * computed in one streaming pass with constant memory. The distinct count is
+ * estimated with HyperLogLog and the quantiles with a quantile sketch, thus
+ * they are approximations for large data.
+ */
+public class ColumnStatistics implements Serializable {
+
+    private final HyperLogLog distinct = new HyperLogLog();
+    private final QuantileSketch quantiles = new QuantileSketch();
+    private long count;
+    private long nullCount;
+    private Object min;
+    private Object max;
+
+    ColumnStatistics() {
+    }
+
+    // Accumulate the value during the streaming pass
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    void add(Object value) {
+        count++;
+        if (value == null) {
+            nullCount++;
+            return;
+        }
+        distinct.add(value);
+        if (value instanceof Number number) {
+            quantiles.add(number.doubleValue());
+        }
+        if (value instanceof Comparable comparable) {
+            if (min == null || (min.getClass().isInstance(value)
+                    && comparable.compareTo(min) < 0)) {
+                min = value;
+            }
+            if (max == null || (max.getClass().isInstance(value)
+                    && comparable.compareTo(max) > 0)) {
+                max = value;
+            }
+        }
+    }
+
+    /**
+     * Get the number of the rows.
+     * 
+     * @return long value
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the number of the null values.
+     * 
+     * @return long value
+     */
+    public long getNullCount() {
+        return nullCount;
+    }
+
+    /**
+     * Get the ratio of the null values.
+     * 
+     * @return Ratio from 0 to 1, 0 if there are no rows
+     */
+    public double getNullRatio() {
+        return count == 0 ? 0 : (double) nullCount / count;
+    }
+
+    /**
+     * Get the estimated number of the distinct non null values.
+     * 
+     * @return long value
+     */
+    public long getDistinctCount() {
+        return distinct.estimate();
+    }
+
+    /**
+     * Get the smallest value, when the values are comparable.
+     * 
+     * @return The value, null if there are no comparable values
+     */
+    public Object getMin() {
+        return min;
+    }
+
+    /**
+     * Get the largest value, when the values are comparable.
+     * 
+     * @return The value, null if there are no comparable values
+     */
+    public Object getMax() {
+        return max;
+    }
+
+    /**
+     * Get the estimated quantile of the numeric values.
+     * 
+     * @param fraction
+     *            The quantile from 0 to 1, e.g. 0.5 for median
+     * @return The value, null if there are no numeric values
+     */
+    public Double getQuantile(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException(
+                    "Quantile must be between 0 and 1");
+        }
+        return quantiles.getCount() == 0 ? null
+                : quantiles.quantile(fraction);
+    }
+}
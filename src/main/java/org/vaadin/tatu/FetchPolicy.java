@@ -0,0 +1,312 @@
+package org.vaadin.tatu;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.vaadin.flow.function.SerializableSupplier;
+
+/**
+ * Policy for fetching the data from the data provider of BeanTable, see
+ * {@link BeanTable#setFetchPolicy(FetchPolicy)}. The policy defines
+ * <ul>
+ * <li>the timeout of a fetch,</li>
+ * <li>the number of retries with exponential backoff when a fetch fails,</li>
+ * <li>a circuit breaker, which is shared by all the tables using the same
+ * data provider instance. When the data provider has failed the given number
+ * of times in a row, the fetches fail fast without calling it until the open
+ * duration has passed,</li>
+ * <li>whether the last successfully fetched page is kept shown as stale
+ * instead of an error when the fetch fails.</li>
+ * </ul>
+ * <p>
+ * Note: With the policy the fetched items are collected to a list within the
+ * timeout. When the timeout is set, the fetch is run in a separate thread of
+ * a bounded pool, thus the data provider can't rely on thread locals like
+ * {@link com.vaadin.flow.component.UI#getCurrent()}. Call
+ * {@link #shutdown()} when the application is undeployed.
+ *
+ * @author Tatu Lund
+ */
+public class FetchPolicy implements Serializable {
+
+    private static final Map<Object, CircuitBreaker> circuitBreakers = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    // Threads running the fetches with a timeout, idle threads are released
+    private static final int TIMEOUT_THREADS = 16;
+
+    private static ThreadPoolExecutor timeoutExecutor;
+
+    private Duration timeout;
+    private int retries;
+    private Duration backoff = Duration.ofMillis(100);
+    private int failureThreshold;
+    private Duration openDuration;
+    private boolean stalePageShown;
+
+    /**
+     * Set the timeout of a fetch. A fetch which has not completed within the
+     * timeout is interrupted and counted as failed.
+     *
+     * @param timeout
+     *            The timeout, null for no timeout
+     * @return The policy for chaining
+     */
+    public FetchPolicy setTimeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * Get the timeout of a fetch.
+     *
+     * @return The timeout, null if not set
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Set the number of retries of a failed fetch. The delay before the first
+     * retry is the backoff, and it is doubled for each further retry.
+     * <p>
+     * Note: The fetches are retried only when they are run in the background,
+     * see {@link BeanTable#setFetchExecutor(java.util.concurrent.Executor)}.
+     * Otherwise the fetch is attempted once, so that the session is not
+     * locked during the backoff.
+     *
+     * @param retries
+     *            Number of retries, 0 for no retries
+     * @param backoff
+     *            Delay before the first retry, not null
+     * @return The policy for chaining
+     */
+    public FetchPolicy setRetries(int retries, Duration backoff) {
+        if (retries < 0) {
+            throw new IllegalArgumentException("Retries can't be negative");
+        }
+        this.retries = retries;
+        this.backoff = Objects.requireNonNull(backoff,
+                "Backoff can't be null");
+        return this;
+    }
+
+    /**
+     * Get the number of retries of a failed fetch.
+     *
+     * @return Number of retries
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Get the delay before the first retry.
+     *
+     * @return The backoff
+     */
+    public Duration getBackoff() {
+        return backoff;
+    }
+
+    /**
+     * Set the circuit breaker of the data provider. After the given number of
+     * failed fetches in a row, fetches fail without calling the data provider
+     * until the open duration has passed. Then one fetch is let through, and
+     * the circuit is closed again if it succeeds.
+     *
+     * @param failureThreshold
+     *            Number of failures in a row, 0 to disable the circuit breaker
+     * @param openDuration
+     *            Time the circuit is kept open, not null
+     * @return The policy for chaining
+     */
+    public FetchPolicy setCircuitBreaker(int failureThreshold,
+            Duration openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = Objects.requireNonNull(openDuration,
+                "Open duration can't be null");
+        return this;
+    }
+
+    /**
+     * Get the number of failures in a row which opens the circuit.
+     *
+     * @return Number of failures, 0 if the circuit breaker is not used
+     */
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * Get the time the circuit is kept open.
+     *
+     * @return The duration, null if not set
+     */
+    public Duration getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * Set whether the previously shown rows are kept when a fetch fails. The
+     * table has the attribute "stale" while the rows are stale. Otherwise the
+     * rows are replaced with the error text.
+     *
+     * @param stalePageShown
+     *            Boolean value
+     * @return The policy for chaining
+     */
+    public FetchPolicy setStalePageShown(boolean stalePageShown) {
+        this.stalePageShown = stalePageShown;
+        return this;
+    }
+
+    /**
+     * Get whether the previously shown rows are kept when a fetch fails.
+     *
+     * @return Boolean value
+     */
+    public boolean isStalePageShown() {
+        return stalePageShown;
+    }
+
+    /**
+     * Check whether the circuit of the data provider is open, i.e. fetches
+     * fail without calling the data provider.
+     *
+     * @param dataProvider
+     *            The data provider
+     * @return true if the circuit is open
+     */
+    public static boolean isCircuitOpen(Object dataProvider) {
+        CircuitBreaker breaker = circuitBreakers.get(dataProvider);
+        return breaker != null && breaker.isOpen();
+    }
+
+    /**
+     * Stop the threads used for the fetches with a timeout, e.g. in
+     * {@link com.vaadin.flow.server.ServiceDestroyListener} when the
+     * application is undeployed. A new pool is created if needed later.
+     */
+    public static synchronized void shutdown() {
+        if (timeoutExecutor != null) {
+            timeoutExecutor.shutdownNow();
+            timeoutExecutor = null;
+        }
+    }
+
+    // Run the fetch with the timeout, retries and the circuit breaker of the
+    // data provider. Retries are done only in the background, as the caller
+    // would hold the session lock during the backoff.
+    <R> R execute(Object dataProvider, SerializableSupplier<R> fetch,
+            boolean background) throws Exception {
+        CircuitBreaker breaker = failureThreshold > 0
+                ? circuitBreakers.computeIfAbsent(dataProvider,
+                        key -> new CircuitBreaker())
+                : null;
+        long delay = backoff.toMillis();
+        for (int attempt = 0;; attempt++) {
+            if (breaker != null && !breaker.allowRequest()) {
+                throw new IllegalStateException(
+                        "Circuit of the data provider is open");
+            }
+            try {
+                R result = timeout == null ? fetch.get()
+                        : executeWithTimeout(fetch);
+                if (breaker != null) {
+                    breaker.recordSuccess();
+                }
+                return result;
+            } catch (Exception e) {
+                if (breaker != null) {
+                    breaker.recordFailure(failureThreshold, openDuration);
+                }
+                if (!background || attempt >= retries
+                        || e instanceof InterruptedException) {
+                    throw e;
+                }
+            }
+            Thread.sleep(delay);
+            delay *= 2;
+        }
+    }
+
+    private <R> R executeWithTimeout(SerializableSupplier<R> fetch)
+            throws Exception {
+        FutureTask<R> task = new FutureTask<>(fetch::get);
+        getTimeoutExecutor().execute(task);
+        try {
+            return task.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | InterruptedException e) {
+            task.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static synchronized ExecutorService getTimeoutExecutor() {
+        if (timeoutExecutor == null) {
+            timeoutExecutor = new ThreadPoolExecutor(TIMEOUT_THREADS,
+                    TIMEOUT_THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable,
+                                "bean-table-fetch");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            timeoutExecutor.allowCoreThreadTimeOut(true);
+        }
+        return timeoutExecutor;
+    }
+
+    // Consecutive failures of a data provider
+    private static class CircuitBreaker {
+        private int failures;
+        private long openUntil;
+        private boolean open;
+
+        synchronized boolean isOpen() {
+            return open && System.nanoTime() < openUntil;
+        }
+
+        // Half open after the open duration, one request is let through
+        synchronized boolean allowRequest() {
+            if (!open) {
+                return true;
+            }
+            if (System.nanoTime() >= openUntil) {
+                openUntil = Long.MAX_VALUE;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized void recordSuccess() {
+            failures = 0;
+            open = false;
+        }
+
+        synchronized void recordFailure(int threshold, Duration duration) {
+            failures++;
+            if (failures >= threshold) {
+                open = true;
+                openUntil = System.nanoTime() + duration.toNanos();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.vaadin.tatu;
+
+import java.io.Serializable;
+
+/**
+ * Internal HyperLogLog sketch for estimating the number of distinct values
+ * with constant memory. Uses 2^12 registers, which gives about 1.6% standard
+ * error.
+ */
+class HyperLogLog implements Serializable {
+
+    private static final int PRECISION = 12;
+    private static final int REGISTERS = 1 << PRECISION;
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    /**
+     * Add a value to the sketch.
+     *
+     * @param value
+     *            The value, not null
+     */
+    void add(Object value) {
+        long hash = mix(value.hashCode());
+        int index = (int) (hash >>> (64 - PRECISION));
+        int rank = Math.min(Long.numberOfLeadingZeros(hash << PRECISION),
+                64 - PRECISION) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * Get the estimated number of distinct values.
+     *
+     * @return The estimate
+     */
+    long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double estimate = alpha * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            // Linear counting is more accurate for small cardinalities
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    // Spread the 32 bit hash code to 64 bits, finalizer of MurmurHash3
+    private static long mix(int hashCode) {
+        long hash = hashCode * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,103 @@
+package org.vaadin.tatu;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * In JVM implementation of {@link PageCache}. The entries expire after the
+ * time to live, and the least recently used entries are evicted when the
+ * maximum number of the entries is exceeded. Create one instance and share it
+ * by the tables of all the sessions.
+ *
+ * @author Tatu Lund
+ */
+public class InMemoryPageCache implements PageCache {
+
+    private final int maxEntries;
+    private final long timeToLive;
+    private final Map<QueryFingerprint, Entry> entries;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Create the cache.
+     *
+     * @param maxEntries
+     *            Maximum number of the cached results
+     * @param timeToLive
+     *            Time after which a result expires, not null
+     */
+    public InMemoryPageCache(int maxEntries, Duration timeToLive) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException(
+                    "Maximum number of entries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.timeToLive = Objects
+                .requireNonNull(timeToLive, "Time to live can't be null")
+                .toMillis();
+        // Access order for least recently used eviction
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<QueryFingerprint, Entry> eldest) {
+                return size() > InMemoryPageCache.this.maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public synchronized Entry get(QueryFingerprint key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.getAge() > timeToLive) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return entry;
+    }
+
+    @Override
+    public synchronized void put(QueryFingerprint key, Object value) {
+        entries.put(key, new Entry(value));
+    }
+
+    @Override
+    public synchronized void invalidate(String providerId) {
+        entries.keySet()
+                .removeIf(key -> key.getProviderId().equals(providerId));
+    }
+
+    /**
+     * Get the number of the cached results.
+     *
+     * @return int value
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the number of the queries answered from the cache.
+     *
+     * @return long value
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of the queries not found in the cache.
+     *
+     * @return long value
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
@@ -0,0 +1,851 @@
+package org.vaadin.tatu;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.vaadin.tatu.BeanTable.AggregateFunction;
+
+import com.vaadin.flow.data.provider.ListDataProvider;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.function.ValueProvider;
+
+/**
+ * Internal helper for fetching pages from a {@link ListDataProvider}. Returns
+ * the same items as {@link ListDataProvider#fetch(Query)} but avoids filtering
+ * and sorting the whole collection for every page.
+ * <p>
+ * The filtered and sorted result is materialized once as an int[] permutation
+ * over a snapshot of the items, after which a page is an O(pageLength) slice
+ * of the permutation. Only the prefix of the permutation that has been shown
+ * is sorted, the top offset+limit items are selected with a bounded heap,
+ * which costs O(n log k) instead of O(n log n). The permutation is rebuilt
+ * when the filter changes, or when {@link #invalidate()} is called due to data
+ * change. Change of the sort order keeps the filtered permutation and only
+ * resets the sorted prefix.
+ * <p>
+ * When the data is larger than the parallel threshold, filtering, sorting and
+ * the top K selection are split across a {@link ForkJoinPool}. The results are
+ * merged in the original order, so they are the same as with sequential
+ * processing.
+ * <p>
+ * Column filters accept the items whose column value is one of the given
+ * values. Low cardinality columns get a bitmap index, value to BitSet of the
+ * item positions, which is built once per data snapshot. Filters of several
+ * columns are then evaluated as bitmap OR within a column and AND between
+ * the columns, and the count is the cardinality of the result.
+ * <p>
+ * Quick search is answered with a trigram index, see
+ * {@link QuickSearchIndex}. The indexes are updated incrementally when an
+ * item is refreshed, see {@link #refreshItems(Collection, Function)}. The
+ * refreshed items are located with an id to position map of the snapshot,
+ * and only their entries of the permutation are moved.
+ * <p>
+ * Column aggregates are computed in one pass over the filtered items with
+ * primitive accumulators, and maintained incrementally when an item is
+ * refreshed.
+ *
+ * @param <T>
+ *            Bean type
+ */
+class InMemoryPager<T> implements Serializable {
+
+    // Bounded heap selection pays off only when the page is far from the
+    // end of the data
+    private static final int TOP_K_RATIO = 4;
+    // Columns with more distinct values are filtered by scanning, as the
+    // bitmaps would take more memory than they save
+    static final int MAX_BITMAP_CARDINALITY = 64;
+
+    private transient Object[] snapshot;
+    private transient Object[] snapshotKey;
+    // Positions of the items in the snapshot by id, built when needed
+    private transient Map<Object, Integer> positions;
+    // Indexes of the filtered items in the snapshot
+    private transient int[] permutation;
+    // Number of the leading entries of the permutation in the final order
+    private transient int sortedPrefix;
+    private transient Object[] filterKey;
+    private transient Object[] sortKey;
+    private transient Comparator<T> comparator;
+    private int parallelThreshold = -1;
+    private transient ForkJoinPool pool;
+    private Map<ValueProvider<T, ?>, Set<?>> columnFilters = new LinkedHashMap<>();
+    private transient Map<ValueProvider<T, ?>, Map<Object, BitSet>> bitmapIndexes;
+    private List<ValueProvider<T, ?>> quickSearchColumns = new ArrayList<>();
+    private String quickSearch;
+    private transient QuickSearchIndex<T> quickSearchIndex;
+    private transient Predicate<T> predicate;
+    private transient Map<ValueProvider<T, ?>, Accumulator> aggregates;
+    // Positions of the items included in the aggregates
+    private transient BitSet aggregated;
+    private transient Object[] aggregatesKey;
+
+    /**
+     * Set the quick search. An item passes if the string value of one of the
+     * columns contains the search text, ignoring case.
+     *
+     * @param columns
+     *            Value providers of the searched columns
+     * @param searchText
+     *            The search text, null or empty for no quick search
+     */
+    void setQuickSearch(List<ValueProvider<T, ?>> columns,
+            String searchText) {
+        if (!columns.equals(quickSearchColumns)) {
+            quickSearchColumns = new ArrayList<>(columns);
+            quickSearchIndex = null;
+        }
+        quickSearch = searchText == null || searchText.isEmpty() ? null
+                : searchText;
+    }
+
+    /**
+     * Update the indexes of the refreshed items instead of rebuilding them.
+     * The items are located by id and replaced with the refreshed instances.
+     * The entry of the item is removed from the filtered permutation and
+     * inserted again if the item still passes the filters, in the sort order
+     * if it belongs to the sorted prefix.
+     *
+     * @param items
+     *            The refreshed items
+     * @param idGetter
+     *            Function to get the id of the item
+     */
+    void refreshItems(Collection<T> items, Function<T, Object> idGetter) {
+        if (snapshot == null || items.isEmpty()) {
+            return;
+        }
+        Map<Object, Integer> positions = getPositions(idGetter);
+        boolean copied = false;
+        for (T item : items) {
+            Integer position = positions.get(idGetter.apply(item));
+            if (position == null) {
+                continue;
+            }
+            if (!copied) {
+                // Streams of the previous snapshot are not affected
+                snapshot = snapshot.clone();
+                copied = true;
+            }
+            snapshot[position] = item;
+            reindex(position);
+            updateAggregates(position);
+            if (permutation != null) {
+                movePosition(position);
+            }
+        }
+    }
+
+    /**
+     * Get the items of the data provider by ids regardless of the filters.
+     *
+     * @param provider
+     *            The data provider
+     * @param ids
+     *            The ids
+     * @param idGetter
+     *            Function to get the id of the item
+     * @return Map from the id to the item, the ids not in the data are
+     *         omitted
+     */
+    Map<Object, T> getItems(ListDataProvider<T> provider,
+            Collection<Object> ids, Function<T, Object> idGetter) {
+        updateSnapshot(provider);
+        Map<Object, Integer> positions = getPositions(idGetter);
+        Map<Object, T> items = new HashMap<>();
+        ids.forEach(id -> {
+            Integer position = positions.get(id);
+            if (position != null) {
+                items.put(id, itemAt(position));
+            }
+        });
+        return items;
+    }
+
+    private Map<Object, Integer> getPositions(Function<T, Object> idGetter) {
+        if (positions == null) {
+            positions = new HashMap<>(snapshot.length * 2);
+            for (int position = 0; position < snapshot.length; position++) {
+                positions.putIfAbsent(idGetter.apply(itemAt(position)),
+                        position);
+            }
+        }
+        return positions;
+    }
+
+    // Move the entry of the refreshed position in the permutation. The
+    // sorted prefix stays the first entries in the final order, and the
+    // rest are not before them.
+    private void movePosition(int position) {
+        int index = -1;
+        for (int i = 0; i < permutation.length; i++) {
+            if (permutation[i] == position) {
+                index = i;
+                break;
+            }
+        }
+        int[] moved = permutation;
+        int prefix = sortedPrefix;
+        if (index >= 0) {
+            moved = new int[permutation.length - 1];
+            System.arraycopy(permutation, 0, moved, 0, index);
+            System.arraycopy(permutation, index + 1, moved, index,
+                    moved.length - index);
+            if (index < prefix) {
+                prefix--;
+            }
+        }
+        if (passes(position)) {
+            int insertAt;
+            if (sortKey == null || comparator == null) {
+                // The permutation is in the original order
+                insertAt = Arrays.binarySearch(moved, position);
+                insertAt = insertAt < 0 ? -insertAt - 1 : insertAt;
+                prefix = moved.length + 1;
+            } else {
+                insertAt = findInPrefix(moved, prefix, position);
+                if (insertAt < prefix || prefix == moved.length) {
+                    prefix++;
+                } else {
+                    insertAt = moved.length;
+                }
+            }
+            int[] inserted = new int[moved.length + 1];
+            System.arraycopy(moved, 0, inserted, 0, insertAt);
+            inserted[insertAt] = position;
+            System.arraycopy(moved, insertAt, inserted, insertAt + 1,
+                    moved.length - insertAt);
+            moved = inserted;
+        }
+        permutation = moved;
+        sortedPrefix = Math.min(prefix, moved.length);
+    }
+
+    // Binary search of the insertion point in the sorted prefix
+    private int findInPrefix(int[] entries, int prefix, int position) {
+        Comparator<Integer> byIndex = indexComparator(comparator);
+        int low = 0;
+        int high = prefix;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (byIndex.compare(entries[middle], position) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Stream the filtered items in the original order. The stream is
+     * independent of later changes of the pager, so it can be consumed in
+     * another thread.
+     *
+     * @param provider
+     *            The data provider
+     * @param query
+     *            The query
+     * @return Stream of the items
+     */
+    @SuppressWarnings("unchecked")
+    Stream<T> streamFiltered(ListDataProvider<T> provider,
+            Query<T, ?> query) {
+        update(provider, query);
+        int[] positions = permutation.clone();
+        Arrays.sort(positions);
+        Object[] items = snapshot;
+        return Arrays.stream(positions).mapToObj(index -> (T) items[index]);
+    }
+
+    /**
+     * Get the aggregates of the columns over the filtered items. Missing
+     * aggregates are computed in one pass.
+     *
+     * @param provider
+     *            The data provider
+     * @param query
+     *            The query
+     * @param columns
+     *            Value providers of the aggregated columns
+     * @return Map from the value provider to the accumulator
+     */
+    Map<ValueProvider<T, ?>, Accumulator> aggregate(
+            ListDataProvider<T> provider, Query<T, ?> query,
+            Collection<ValueProvider<T, ?>> columns) {
+        update(provider, query);
+        if (aggregates == null || !sameKey(aggregatesKey, filterKey)) {
+            aggregates = new HashMap<>();
+            aggregated = new BitSet(snapshot.length);
+            Arrays.stream(permutation).forEach(aggregated::set);
+            aggregatesKey = filterKey;
+        }
+        List<ValueProvider<T, ?>> missing = new ArrayList<>();
+        columns.stream().filter(column -> !aggregates.containsKey(column))
+                .distinct().forEach(missing::add);
+        if (!missing.isEmpty()) {
+            Accumulator[] accumulators = new Accumulator[missing.size()];
+            for (int i = 0; i < accumulators.length; i++) {
+                accumulators[i] = new Accumulator(snapshot.length);
+                aggregates.put(missing.get(i), accumulators[i]);
+            }
+            for (int position : permutation) {
+                T item = itemAt(position);
+                for (int i = 0; i < accumulators.length; i++) {
+                    accumulators[i].add(position, missing.get(i).apply(item));
+                }
+            }
+        }
+        Map<ValueProvider<T, ?>, Accumulator> result = new HashMap<>();
+        columns.forEach(column -> result.put(column, aggregates.get(column)));
+        return result;
+    }
+
+    // Move the contribution of the refreshed item in the aggregates
+    private void updateAggregates(int position) {
+        if (aggregates == null) {
+            return;
+        }
+        T item = itemAt(position);
+        boolean passes = passes(position);
+        aggregates.forEach((column, accumulator) -> {
+            if (aggregated.get(position)) {
+                accumulator.remove(position);
+            }
+            if (passes) {
+                accumulator.add(position, column.apply(item));
+            }
+        });
+        aggregated.set(position, passes);
+    }
+
+    // Check whether the item passes the current filters
+    private boolean passes(int position) {
+        T item = itemAt(position);
+        if (predicate != null && !predicate.test(item)) {
+            return false;
+        }
+        for (Map.Entry<ValueProvider<T, ?>, Set<?>> filter : columnFilters
+                .entrySet()) {
+            if (!filter.getValue().contains(filter.getKey().apply(item))) {
+                return false;
+            }
+        }
+        return quickSearch == null || quickSearchIndex == null
+                || quickSearchIndex.matches(position, quickSearch);
+    }
+
+    private void reindex(int position) {
+        T item = itemAt(position);
+        if (quickSearchIndex != null) {
+            quickSearchIndex.update(position, item);
+        }
+        List<Map.Entry<ValueProvider<T, ?>, Map<Object, BitSet>>> indexes = new ArrayList<>(
+                bitmapIndexes.entrySet());
+        for (Map.Entry<ValueProvider<T, ?>, Map<Object, BitSet>> entry : indexes) {
+            Map<Object, BitSet> index = entry.getValue();
+            if (index == null) {
+                continue;
+            }
+            index.values().forEach(bits -> bits.clear(position));
+            Object value = entry.getKey().apply(item);
+            if (!index.containsKey(value)
+                    && index.size() == MAX_BITMAP_CARDINALITY) {
+                // Rebuilt when needed next time
+                bitmapIndexes.remove(entry.getKey());
+            } else {
+                index.computeIfAbsent(value,
+                        key -> new BitSet(snapshot.length)).set(position);
+            }
+        }
+    }
+
+    /**
+     * Set the column filters. An item passes if the value of every filtered
+     * column is one of the accepted values of the column.
+     *
+     * @param filters
+     *            Map from the value provider of the column to the accepted
+     *            values
+     */
+    void setColumnFilters(Map<ValueProvider<T, ?>, Set<?>> filters) {
+        columnFilters = new LinkedHashMap<>(filters);
+    }
+
+    /**
+     * Enable parallel processing of the data larger than the threshold.
+     *
+     * @param threshold
+     *            Minimum number of the items, -1 to disable
+     * @param pool
+     *            The pool, null to use the common pool
+     */
+    void setParallelism(int threshold, ForkJoinPool pool) {
+        this.parallelThreshold = threshold;
+        this.pool = pool;
+    }
+
+    /**
+     * Fetch the items of the query from the data provider.
+     *
+     * @param provider
+     *            The data provider
+     * @param query
+     *            The query
+     * @return Stream of the items
+     */
+    @SuppressWarnings("unchecked")
+    Stream<T> fetch(ListDataProvider<T> provider, Query<T, ?> query) {
+        update(provider, query);
+        Comparator<T> comparator = getComparator(provider, query);
+        Object[] key = new Object[] { provider.getSortComparator(),
+                query.getInMemorySorting() };
+        if (!sameKey(key, sortKey)) {
+            this.comparator = comparator;
+            if (comparator == null) {
+                // Restore the original order of the items
+                Arrays.sort(permutation);
+                sortedPrefix = permutation.length;
+            } else {
+                sortedPrefix = 0;
+            }
+            sortKey = key;
+        }
+        int from = Math.min(query.getOffset(), permutation.length);
+        int to = (int) Math.min((long) query.getOffset() + query.getLimit(),
+                permutation.length);
+        sortPrefix(comparator, to);
+        return Arrays.stream(permutation, from, to)
+                .mapToObj(index -> (T) snapshot[index]);
+    }
+
+    /**
+     * Get the number of the items passing the filters.
+     *
+     * @param provider
+     *            The data provider
+     * @param query
+     *            The query
+     * @return The size
+     */
+    int size(ListDataProvider<T> provider, Query<T, ?> query) {
+        update(provider, query);
+        return permutation.length;
+    }
+
+    /**
+     * Drop the cached permutation, needs to be called when the data has
+     * changed.
+     */
+    void invalidate() {
+        snapshot = null;
+        snapshotKey = null;
+        positions = null;
+        bitmapIndexes = null;
+        quickSearchIndex = null;
+        aggregates = null;
+        permutation = null;
+        filterKey = null;
+        sortKey = null;
+    }
+
+    // Rebuild the filtered permutation if the data provider or its filter
+    // has changed. The permutation is in the original order of the items.
+    private void update(ListDataProvider<T> provider, Query<T, ?> query) {
+        Object[] key = new Object[] { provider, provider.getItems(),
+                provider.getFilter(), query.getFilter().orElse(null),
+                columnFilters, quickSearchColumns, quickSearch };
+        updateSnapshot(provider);
+        if (permutation == null || !sameKey(key, filterKey)) {
+            predicate = getPredicate(provider, query);
+            BitSet candidates = filterColumns();
+            if (quickSearch != null) {
+                BitSet matches = searchQuick();
+                if (candidates == null) {
+                    candidates = matches;
+                } else {
+                    candidates.and(matches);
+                }
+            }
+            IntStream indexes = candidates != null ? candidates.stream()
+                    : IntStream.range(0, snapshot.length);
+            if (isParallel(snapshot.length)) {
+                permutation = compute(() -> indexes.parallel()
+                        .filter(index -> predicate.test(itemAt(index)))
+                        .toArray());
+            } else {
+                permutation = indexes
+                        .filter(index -> predicate.test(itemAt(index)))
+                        .toArray();
+            }
+            sortedPrefix = permutation.length;
+            filterKey = key;
+            sortKey = null;
+        }
+    }
+
+    // Take a new snapshot if the data provider or its items have changed
+    private void updateSnapshot(ListDataProvider<T> provider) {
+        Object[] key = new Object[] { provider, provider.getItems() };
+        if (snapshot == null || !sameKey(key, snapshotKey)
+                || snapshot.length != provider.getItems().size()) {
+            snapshot = provider.getItems().toArray();
+            snapshotKey = key;
+            positions = null;
+            bitmapIndexes = new HashMap<>();
+            quickSearchIndex = null;
+            aggregates = null;
+            permutation = null;
+        }
+    }
+
+    // Evaluate the column filters as bitmaps, null if there are no column
+    // filters
+    private BitSet filterColumns() {
+        BitSet result = null;
+        for (Map.Entry<ValueProvider<T, ?>, Set<?>> filter : columnFilters
+                .entrySet()) {
+            Map<Object, BitSet> index = getBitmapIndex(filter.getKey());
+            BitSet columnBits = new BitSet(snapshot.length);
+            if (index != null) {
+                filter.getValue().forEach(value -> {
+                    BitSet bits = index.get(value);
+                    if (bits != null) {
+                        columnBits.or(bits);
+                    }
+                });
+            } else {
+                BitSet candidates = result;
+                IntStream positions = candidates != null ? candidates.stream()
+                        : IntStream.range(0, snapshot.length);
+                positions.filter(position -> filter.getValue()
+                        .contains(filter.getKey().apply(itemAt(position))))
+                        .forEach(columnBits::set);
+            }
+            if (result == null) {
+                result = columnBits;
+            } else {
+                result.and(columnBits);
+            }
+        }
+        return result;
+    }
+
+    // Build the quick search index lazily
+    private BitSet searchQuick() {
+        if (quickSearchIndex == null) {
+            quickSearchIndex = new QuickSearchIndex<>(quickSearchColumns,
+                    snapshot);
+        }
+        return quickSearchIndex.search(quickSearch);
+    }
+
+    // Build the bitmap index of the column lazily, null if the column has
+    // too many distinct values
+    private Map<Object, BitSet> getBitmapIndex(
+            ValueProvider<T, ?> valueProvider) {
+        if (bitmapIndexes.containsKey(valueProvider)) {
+            return bitmapIndexes.get(valueProvider);
+        }
+        Map<Object, BitSet> index = new HashMap<>();
+        for (int position = 0; position < snapshot.length; position++) {
+            Object value = valueProvider.apply(itemAt(position));
+            BitSet bits = index.get(value);
+            if (bits == null) {
+                if (index.size() == MAX_BITMAP_CARDINALITY) {
+                    index = null;
+                    break;
+                }
+                bits = new BitSet(snapshot.length);
+                index.put(value, bits);
+            }
+            bits.set(position);
+        }
+        bitmapIndexes.put(valueProvider, index);
+        return index;
+    }
+
+    /**
+     * Check whether the column has a bitmap index in the current snapshot.
+     *
+     * @param valueProvider
+     *            Value provider of the column
+     * @return true if the column is filtered using the bitmap index
+     */
+    boolean isBitmapIndexed(ValueProvider<T, ?> valueProvider) {
+        return bitmapIndexes != null
+                && bitmapIndexes.get(valueProvider) != null;
+    }
+
+    private static boolean sameKey(Object[] key1, Object[] key2) {
+        if (key2 == null || key1.length != key2.length) {
+            return false;
+        }
+        for (int i = 0; i < key1.length; i++) {
+            if (key1[i] != key2[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Make sure that the first count entries of the permutation are in the
+    // final order
+    private void sortPrefix(Comparator<T> comparator, int count) {
+        if (count <= sortedPrefix) {
+            return;
+        }
+        Comparator<Integer> byIndex = indexComparator(comparator);
+        boolean parallel = isParallel(permutation.length);
+        if ((long) count * TOP_K_RATIO >= permutation.length) {
+            int[] unsorted = permutation;
+            permutation = parallel
+                    ? compute(() -> Arrays.stream(unsorted).boxed().parallel()
+                            .sorted(byIndex).mapToInt(Integer::intValue)
+                            .toArray())
+                    : Arrays.stream(unsorted).boxed().sorted(byIndex)
+                            .mapToInt(Integer::intValue).toArray();
+            sortedPrefix = permutation.length;
+        } else {
+            int[] top = parallel ? parallelTopK(byIndex, count)
+                    : topK(permutation, byIndex, count);
+            boolean[] selected = new boolean[snapshot.length];
+            for (int index : top) {
+                selected[index] = true;
+            }
+            int[] reordered = new int[permutation.length];
+            System.arraycopy(top, 0, reordered, 0, top.length);
+            int position = top.length;
+            for (int index : permutation) {
+                if (!selected[index]) {
+                    reordered[position++] = index;
+                }
+            }
+            permutation = reordered;
+            sortedPrefix = top.length;
+        }
+    }
+
+    // Select the top K of each chunk in parallel, the final top K is among
+    // the merged candidates
+    private int[] parallelTopK(Comparator<Integer> byIndex, int count) {
+        int[] candidates = permutation;
+        int chunks = getPool().getParallelism();
+        int chunkSize = (candidates.length + chunks - 1) / chunks;
+        int[] merged = compute(() -> IntStream.range(0, chunks).parallel()
+                .mapToObj(chunk -> topK(Arrays.copyOfRange(candidates,
+                        Math.min(chunk * chunkSize, candidates.length),
+                        Math.min((chunk + 1) * chunkSize, candidates.length)),
+                        byIndex, count))
+                .flatMapToInt(Arrays::stream).toArray());
+        return topK(merged, byIndex, count);
+    }
+
+    private boolean isParallel(int size) {
+        return parallelThreshold > 0 && size >= parallelThreshold;
+    }
+
+    private ForkJoinPool getPool() {
+        return pool != null ? pool : ForkJoinPool.commonPool();
+    }
+
+    // Parallel streams use the pool of the task they are run in
+    private <R> R compute(Supplier<R> task) {
+        return getPool().submit(() -> task.get()).join();
+    }
+
+    @SuppressWarnings("unchecked")
+    private T itemAt(int index) {
+        return (T) snapshot[index];
+    }
+
+    // Compare snapshot indexes by the items, equal items keep their original
+    // order like with a stable sort
+    private Comparator<Integer> indexComparator(Comparator<T> comparator) {
+        return (index1, index2) -> {
+            int result = comparator.compare(itemAt(index1), itemAt(index2));
+            return result != 0 ? result : Integer.compare(index1, index2);
+        };
+    }
+
+    /**
+     * Select the k first items in the order of the comparator. Items that are
+     * equal by the comparator keep their original order, like with a stable
+     * sort.
+     *
+     * @param items
+     *            The items
+     * @param comparator
+     *            The comparator
+     * @param k
+     *            Number of the items to select
+     * @return Sorted list of at most k items
+     */
+    static <T> List<T> topK(List<T> items, Comparator<? super T> comparator,
+            int k) {
+        Comparator<Integer> byIndex = (index1, index2) -> {
+            int result = comparator.compare(items.get(index1),
+                    items.get(index2));
+            return result != 0 ? result : Integer.compare(index1, index2);
+        };
+        int[] top = topK(IntStream.range(0, items.size()).toArray(), byIndex,
+                k);
+        return Arrays.stream(top).mapToObj(items::get)
+                .collect(Collectors.toList());
+    }
+
+    // Bounded heap selection of the k first candidates, result is sorted
+    private static int[] topK(int[] candidates,
+            Comparator<Integer> comparator, int k) {
+        if (k <= 0) {
+            return new int[0];
+        }
+        // Max heap of the k best candidates, the head is the worst of them
+        PriorityQueue<Integer> heap = new PriorityQueue<>(k + 1,
+                comparator.reversed());
+        for (int candidate : candidates) {
+            if (heap.size() < k) {
+                heap.add(candidate);
+            } else if (comparator.compare(candidate, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(candidate);
+            }
+        }
+        return heap.stream().sorted(comparator).mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    // Query sorting takes precedence over the sort order of the data provider
+    // like in ListDataProvider
+    @SuppressWarnings("unchecked")
+    private Comparator<T> getComparator(ListDataProvider<T> provider,
+            Query<T, ?> query) {
+        Comparator<T> comparator = query.getInMemorySorting();
+        if (provider.getSortComparator() != null) {
+            comparator = comparator == null ? provider.getSortComparator()
+                    : comparator.thenComparing(provider.getSortComparator());
+        }
+        return comparator;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Predicate<T> getPredicate(ListDataProvider<T> provider,
+            Query<T, ?> query) {
+        Predicate<T> predicate = item -> true;
+        if (provider.getFilter() != null) {
+            predicate = provider.getFilter();
+        }
+        if (query.getFilter().isPresent()) {
+            predicate = predicate
+                    .and((Predicate<T>) query.getFilter().get());
+        }
+        return predicate;
+    }
+
+    /**
+     * Primitive accumulator of the column values. Keeps the value of each
+     * included position, so that a refreshed item can be removed from the
+     * aggregates.
+     */
+    static class Accumulator {
+        private final double[] values;
+        private final BitSet numeric;
+        private long count;
+        private long numericCount;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private boolean extremesDirty;
+
+        Accumulator(int size) {
+            values = new double[size];
+            numeric = new BitSet(size);
+        }
+
+        void add(int position, Object value) {
+            if (value == null) {
+                return;
+            }
+            count++;
+            if (value instanceof Number number) {
+                double doubleValue = number.doubleValue();
+                values[position] = doubleValue;
+                numeric.set(position);
+                numericCount++;
+                sum += doubleValue;
+                min = Math.min(min, doubleValue);
+                max = Math.max(max, doubleValue);
+            } else {
+                // Non numeric values are only counted
+                values[position] = Double.NaN;
+            }
+        }
+
+        void remove(int position) {
+            if (numeric.get(position)) {
+                double value = values[position];
+                numeric.clear(position);
+                numericCount--;
+                sum -= value;
+                if (value <= min || value >= max) {
+                    extremesDirty = true;
+                }
+                count--;
+            } else if (Double.isNaN(values[position])) {
+                values[position] = 0;
+                count--;
+            }
+        }
+
+        /**
+         * Get the value of the aggregate.
+         *
+         * @param function
+         *            The aggregate function
+         * @return The value, null if there are no values to aggregate
+         */
+        Number get(AggregateFunction function) {
+            if (extremesDirty) {
+                min = Double.POSITIVE_INFINITY;
+                max = Double.NEGATIVE_INFINITY;
+                numeric.stream().forEach(position -> {
+                    min = Math.min(min, values[position]);
+                    max = Math.max(max, values[position]);
+                });
+                extremesDirty = false;
+            }
+            if (function == AggregateFunction.COUNT) {
+                return count;
+            } else if (numericCount == 0) {
+                return null;
+            }
+            switch (function) {
+            case SUM:
+                return sum;
+            case AVG:
+                return sum / numericCount;
+            case MIN:
+                return min;
+            default:
+                return max;
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.vaadin.tatu;
+
+import java.util.Collection;
+import java.util.stream.Stream;
+
+import com.vaadin.flow.data.provider.BackEndDataProvider;
+
+/**
+ * Optional contract for back end data providers that can fetch items by their
+ * ids, e.g. with a primary key lookup.
+ * <p>
+ * BeanTable in compact mode keeps only the ids of the selected items and the
+ * rows. When the items are needed, e.g. for
+ * {@link BeanTable#getSelected()}, they are first looked up from the
+ * rendered page and the rest are fetched with {@link #fetchByIds(Collection)}.
+ * Compact mode requires this interface with back end data providers. The
+ * selection of a serialized table is also written as ids when the data
+ * provider implements it.
+ *
+ * @author Tatu Lund
+ *
+ * @param <T>
+ *            Bean type
+ * @param <F>
+ *            Filter type
+ */
+public interface ItemLookupDataProvider<T, F>
+        extends BackEndDataProvider<T, F> {
+
+    /**
+     * Fetch the items with the given ids regardless of the filter. The ids
+     * are the ones returned by {@link #getId(Object)}. Ids of the items no
+     * longer in the data are ignored.
+     *
+     * @param ids
+     *            The ids of the items, not empty
+     * @return Stream of the found items in any order
+     */
+    Stream<T> fetchByIds(Collection<Object> ids);
+}
@@ -0,0 +1,66 @@
+package org.vaadin.tatu;
+
+import java.util.stream.Stream;
+
+import com.vaadin.flow.data.provider.BackEndDataProvider;
+import com.vaadin.flow.data.provider.Query;
+
+/**
+ * Optional contract for back end data providers that can fetch pages relative
+ * to a sort key, i.e. keyset or cursor pagination, instead of an offset.
+ * <p>
+ * When the data provider of a paged BeanTable implements this interface, the
+ * next and previous pages are fetched with {@link #fetchAfter(Query, Object)}
+ * and {@link #fetchBefore(Query, Object)} using the key of the last or the
+ * first item of the currently shown page. Other page changes, e.g. jumping to
+ * the first or last page, and refreshes of the current page fall back to the
+ * regular offset based {@link #fetch(Query)}.
+ * <p>
+ * The query passed to the keyset methods has offset 0, the limit is the amount
+ * of items needed. Sorting and filter are the same as with offset queries.
+ *
+ * @author Tatu Lund
+ *
+ * @param <T>
+ *            Bean type
+ * @param <F>
+ *            Filter type
+ * @param <K>
+ *            Key type
+ */
+public interface KeysetDataProvider<T, F, K> extends BackEndDataProvider<T, F> {
+
+    /**
+     * Gets the sort key of the item. The key identifies the position of the
+     * item in the current sort order.
+     *
+     * @param item
+     *            The item, not null
+     * @return The key of the item
+     */
+    K getKey(T item);
+
+    /**
+     * Fetch the items that follow the given key in the current sort order.
+     *
+     * @param query
+     *            The query with offset 0 and limit of the page
+     * @param key
+     *            Key of the last item of the previous page
+     * @return Stream of items in the sort order
+     */
+    Stream<T> fetchAfter(Query<T, F> query, K key);
+
+    /**
+     * Fetch the items that precede the given key in the current sort order.
+     * The items must be returned in the sort order, i.e. the item closest to
+     * the key is the last one in the stream.
+     *
+     * @param query
+     *            The query with offset 0 and limit of the page
+     * @param key
+     *            Key of the first item of the next page
+     * @return Stream of items in the sort order
+     */
+    Stream<T> fetchBefore(Query<T, F> query, K key);
+}
@@ -0,0 +1,105 @@
+package org.vaadin.tatu;
+
+import java.io.Serializable;
+
+/**
+ * Cache of the query results shared by the BeanTables of all the sessions,
+ * see {@link BeanTable#setPageCache(PageCache)}. The results are keyed by
+ * {@link QueryFingerprint}, the values are unmodifiable lists of items for
+ * fetch queries and integers for size queries. The cached items are shared
+ * between the sessions, so they must not be modified.
+ * <p>
+ * {@link InMemoryPageCache} is the default implementation, other
+ * implementations, e.g. off heap or clustered, can be plugged in by
+ * implementing this interface. The implementation must be thread safe.
+ *
+ * @author Tatu Lund
+ */
+public interface PageCache {
+
+    /**
+     * Get the cached result of the query.
+     *
+     * @param key
+     *            The fingerprint of the query
+     * @return The entry, null if not cached or expired
+     */
+    Entry get(QueryFingerprint key);
+
+    /**
+     * Cache the result of the query.
+     *
+     * @param key
+     *            The fingerprint of the query
+     * @param value
+     *            The result
+     */
+    void put(QueryFingerprint key, Object value);
+
+    /**
+     * Remove the cached results of the data provider, e.g. when its data has
+     * changed.
+     *
+     * @param providerId
+     *            Id of the data provider
+     */
+    void invalidate(String providerId);
+
+    /**
+     * Cached result with the time it was fetched.
+     */
+    final class Entry implements Serializable {
+        private final Object value;
+        private final long timestamp;
+
+        /**
+         * Create an entry fetched now.
+         *
+         * @param value
+         *            The result
+         */
+        public Entry(Object value) {
+            this(value, System.currentTimeMillis());
+        }
+
+        /**
+         * Create an entry.
+         *
+         * @param value
+         *            The result
+         * @param timestamp
+         *            Time the result was fetched in epoch milliseconds
+         */
+        public Entry(Object value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * Get the cached result.
+         *
+         * @return The result
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        /**
+         * Get the time the result was fetched.
+         *
+         * @return Epoch milliseconds
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Get the age of the result.
+         *
+         * @return Age in milliseconds
+         */
+        public long getAge() {
+            return System.currentTimeMillis() - timestamp;
+        }
+    }
+}
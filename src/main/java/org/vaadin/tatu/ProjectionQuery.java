@@ -0,0 +1,75 @@
+package org.vaadin.tatu;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.data.provider.QuerySortOrder;
+
+/**
+ * Query used by BeanTable when fetching items from the data provider. In
+ * addition to the regular query parameters it carries the keys of the visible
+ * columns as a projection hint, so that a back end data provider can load
+ * only the needed fields of wide entities, e.g.
+ *
+ * <pre>
+ * if (query instanceof ProjectionQuery&lt;Person, Void&gt; projection) {
+ *     fields = projection.getVisibleProperties();
+ * }
+ * </pre>
+ * <p>
+ * The properties of the hidden columns may be left unloaded, BeanTable
+ * fetches the items again when a column with a key is made visible.
+ * <p>
+ * Note: Only the data provider set directly to BeanTable receives the
+ * ProjectionQuery. A wrapped data provider, e.g. one created with
+ * {@link com.vaadin.flow.data.provider.DataProvider#withConfigurableFilter()},
+ * gets a plain Query from the wrapper without the visible properties.
+ *
+ * @author Tatu Lund
+ *
+ * @param <T>
+ *            Bean type
+ * @param <F>
+ *            Filter type
+ */
+public class ProjectionQuery<T, F> extends Query<T, F> {
+
+    private final Set<String> visibleProperties;
+
+    /**
+     * Constructs a new query.
+     *
+     * @param offset
+     *            First index to fetch
+     * @param limit
+     *            Fetched item count
+     * @param sortOrders
+     *            Sorting order for the back end
+     * @param inMemorySorting
+     *            Comparator for in memory sorting, can be null
+     * @param filter
+     *            Filtering criteria, can be null
+     * @param visibleProperties
+     *            Keys of the visible columns, not null
+     */
+    public ProjectionQuery(int offset, int limit,
+            List<QuerySortOrder> sortOrders, Comparator<T> inMemorySorting,
+            F filter, Set<String> visibleProperties) {
+        super(offset, limit, sortOrders, inMemorySorting, filter);
+        this.visibleProperties = Collections
+                .unmodifiableSet(visibleProperties);
+    }
+
+    /**
+     * Get the keys of the visible columns in the column order. Columns created
+     * by property names have the property name as the key.
+     *
+     * @return Unmodifiable set of keys
+     */
+    public Set<String> getVisibleProperties() {
+        return visibleProperties;
+    }
+}
@@ -0,0 +1,116 @@
+package org.vaadin.tatu;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Internal quantile sketch with constant memory per level, a simplified KLL
+ * sketch. Values are collected to compactors of fixed capacity. When a
+ * compactor is full, it is sorted and every other value is promoted to the
+ * next level with double weight. Memory is O(k log(n / k)) and the rank error
+ * is about 1 / k.
+ */
+class QuantileSketch implements Serializable {
+
+    private static final int CAPACITY = 256;
+
+    private final List<double[]> levels = new ArrayList<>();
+    private final List<Integer> sizes = new ArrayList<>();
+    private final Random random = new Random(0);
+    private long count;
+
+    /**
+     * Add a value to the sketch.
+     *
+     * @param value
+     *            The value
+     */
+    void add(double value) {
+        count++;
+        append(0, value);
+    }
+
+    /**
+     * Get the number of the values added.
+     *
+     * @return The count
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the estimated quantile.
+     *
+     * @param fraction
+     *            The quantile from 0 to 1, e.g. 0.5 for median
+     * @return The estimated value, NaN if there are no values
+     */
+    double quantile(double fraction) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        int total = 0;
+        for (int size : sizes) {
+            total += size;
+        }
+        double[] values = new double[total];
+        long[] weights = new long[total];
+        int position = 0;
+        for (int level = 0; level < levels.size(); level++) {
+            double[] items = levels.get(level);
+            for (int i = 0; i < sizes.get(level); i++) {
+                values[position] = items[i];
+                weights[position] = 1L << level;
+                position++;
+            }
+        }
+        Integer[] order = new Integer[total];
+        for (int i = 0; i < total; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order,
+                (index1, index2) -> Double.compare(values[index1],
+                        values[index2]));
+        long totalWeight = 0;
+        for (long weight : weights) {
+            totalWeight += weight;
+        }
+        double target = fraction * totalWeight;
+        long cumulative = 0;
+        for (Integer index : order) {
+            cumulative += weights[index];
+            if (cumulative >= target) {
+                return values[index];
+            }
+        }
+        return values[order[total - 1]];
+    }
+
+    private void append(int level, double value) {
+        if (levels.size() == level) {
+            levels.add(new double[CAPACITY]);
+            sizes.add(0);
+        }
+        int size = sizes.get(level);
+        levels.get(level)[size] = value;
+        sizes.set(level, size + 1);
+        if (size + 1 == CAPACITY) {
+            compact(level);
+        }
+    }
+
+    // Promote every other value of the sorted compactor to the next level
+    private void compact(int level) {
+        double[] items = levels.get(level);
+        Arrays.sort(items);
+        int offset = random.nextInt(2);
+        sizes.set(level, 0);
+        for (int i = offset; i < CAPACITY; i += 2) {
+            append(level + 1, items[i]);
+        }
+    }
+}
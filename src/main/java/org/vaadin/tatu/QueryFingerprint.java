@@ -0,0 +1,134 @@
+package org.vaadin.tatu;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.vaadin.flow.data.provider.Query;
+
+/**
+ * Identifies a query of a data provider across sessions, used as the key of
+ * the {@link PageCache}. The fingerprint consists of the provider id, the kind
+ * of the query (size or fetch), offset, limit, back end sort orders, filter
+ * and the visible properties of {@link ProjectionQuery}. The filter is
+ * compared with equals, so it needs to implement equals and hashCode for the
+ * queries to match.
+ *
+ * @author Tatu Lund
+ */
+public final class QueryFingerprint implements Serializable {
+
+    private final String providerId;
+    private final boolean size;
+    private final int offset;
+    private final int limit;
+    private final List<String> sortOrders;
+    private final Object filter;
+    private final Set<String> visibleProperties;
+
+    private QueryFingerprint(String providerId, boolean size, int offset,
+            int limit, List<String> sortOrders, Object filter,
+            Set<String> visibleProperties) {
+        this.providerId = providerId;
+        this.size = size;
+        this.offset = offset;
+        this.limit = limit;
+        this.sortOrders = sortOrders;
+        this.filter = filter;
+        this.visibleProperties = visibleProperties;
+    }
+
+    /**
+     * Create the fingerprint of a fetch query.
+     *
+     * @param providerId
+     *            Id of the data provider, not null
+     * @param query
+     *            The query, not null
+     * @return The fingerprint
+     */
+    public static QueryFingerprint ofFetch(String providerId,
+            Query<?, ?> query) {
+        Objects.requireNonNull(providerId, "Provider id can't be null");
+        List<String> sortOrders = query.getSortOrders() == null
+                ? Collections.emptyList()
+                : query.getSortOrders().stream()
+                        .map(order -> order.getSorted() + " "
+                                + order.getDirection())
+                        .collect(Collectors.toList());
+        Set<String> visibleProperties = Collections.emptySet();
+        if (query instanceof ProjectionQuery<?, ?> projection) {
+            visibleProperties = projection.getVisibleProperties();
+        }
+        return new QueryFingerprint(providerId, false, query.getOffset(),
+                query.getLimit(), sortOrders, query.getFilter().orElse(null),
+                visibleProperties);
+    }
+
+    /**
+     * Create the fingerprint of a size query. Offset, limit and sorting do not
+     * affect the size.
+     *
+     * @param providerId
+     *            Id of the data provider, not null
+     * @param query
+     *            The query, not null
+     * @return The fingerprint
+     */
+    public static QueryFingerprint ofSize(String providerId,
+            Query<?, ?> query) {
+        Objects.requireNonNull(providerId, "Provider id can't be null");
+        return new QueryFingerprint(providerId, true, 0, 0,
+                Collections.emptyList(), query.getFilter().orElse(null),
+                Collections.emptySet());
+    }
+
+    /**
+     * Get the id of the data provider.
+     *
+     * @return The provider id
+     */
+    public String getProviderId() {
+        return providerId;
+    }
+
+    /**
+     * Check whether this is the fingerprint of a size query.
+     *
+     * @return true for size query, false for fetch query
+     */
+    public boolean isSize() {
+        return size;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(providerId, size, offset, limit, sortOrders,
+                filter, visibleProperties);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof QueryFingerprint other)) {
+            return false;
+        }
+        return size == other.size && offset == other.offset
+                && limit == other.limit
+                && providerId.equals(other.providerId)
+                && sortOrders.equals(other.sortOrders)
+                && Objects.equals(filter, other.filter)
+                && visibleProperties.equals(other.visibleProperties);
+    }
+
+    @Override
+    public String toString() {
+        return providerId + (size ? " size" : " fetch " + offset + "+" + limit)
+                + " " + sortOrders + " " + filter + " " + visibleProperties;
+    }
+}
@@ -0,0 +1,226 @@
+package org.vaadin.tatu;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.vaadin.flow.function.ValueProvider;
+
+/**
+ * Internal trigram index for the quick search of in memory data. The string
+ * values of the chosen columns are lower cased once per item, and each
+ * trigram of the text maps to the sorted positions of the items containing
+ * it. A "contains" query intersects the posting lists of the trigrams of the
+ * search text, and the candidates are verified against the text, so the
+ * result is exact. Search texts shorter than a trigram are answered by
+ * scanning the lower cased texts.
+ *
+ * @param <T>
+ *            Bean type
+ */
+class QuickSearchIndex<T> {
+
+    // Separates the column values, so that trigrams do not span columns
+    private static final char SEPARATOR = '\u0000';
+
+    private final List<ValueProvider<T, ?>> valueProviders;
+    private final String[] texts;
+    private final Map<Long, Postings> postings = new HashMap<>();
+
+    /**
+     * Build the index.
+     *
+     * @param valueProviders
+     *            Value providers of the searched columns
+     * @param items
+     *            The items, position in the array is the position in the
+     *            index
+     */
+    @SuppressWarnings("unchecked")
+    QuickSearchIndex(List<ValueProvider<T, ?>> valueProviders,
+            Object[] items) {
+        this.valueProviders = valueProviders;
+        texts = new String[items.length];
+        for (int position = 0; position < items.length; position++) {
+            String text = textOf((T) items[position]);
+            texts[position] = text;
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                Postings list = postings.computeIfAbsent(trigram(text, i),
+                        key -> new Postings());
+                // Positions are added in order, skip repeated trigrams
+                if (list.size == 0 || list.last() != position) {
+                    list.append(position);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the positions of the items whose text contains the search text,
+     * ignoring case.
+     *
+     * @param searchText
+     *            The search text, not null
+     * @return The matching positions
+     */
+    BitSet search(String searchText) {
+        String query = searchText.toLowerCase(Locale.ROOT);
+        BitSet result = new BitSet(texts.length);
+        if (query.length() < 3) {
+            for (int position = 0; position < texts.length; position++) {
+                if (texts[position].contains(query)) {
+                    result.set(position);
+                }
+            }
+            return result;
+        }
+        List<Postings> lists = new ArrayList<>();
+        for (long trigram : trigrams(query)) {
+            Postings list = postings.get(trigram);
+            if (list == null || list.size == 0) {
+                return result;
+            }
+            lists.add(list);
+        }
+        lists.sort((list1, list2) -> Integer.compare(list1.size, list2.size));
+        Postings smallest = lists.get(0);
+        candidates: for (int i = 0; i < smallest.size; i++) {
+            int position = smallest.positions[i];
+            for (int j = 1; j < lists.size(); j++) {
+                if (!lists.get(j).contains(position)) {
+                    continue candidates;
+                }
+            }
+            if (texts[position].contains(query)) {
+                result.set(position);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check whether the item in the position contains the search text,
+     * ignoring case.
+     *
+     * @param position
+     *            Position of the item
+     * @param searchText
+     *            The search text, not null
+     * @return true if the item matches
+     */
+    boolean matches(int position, String searchText) {
+        return texts[position].contains(searchText.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Update the index for the item in the position, e.g. when the item has
+     * been refreshed.
+     *
+     * @param position
+     *            Position of the item
+     * @param item
+     *            The item
+     */
+    void update(int position, T item) {
+        for (long trigram : trigrams(texts[position])) {
+            Postings list = postings.get(trigram);
+            if (list != null) {
+                list.remove(position);
+            }
+        }
+        String text = textOf(item);
+        texts[position] = text;
+        for (long trigram : trigrams(text)) {
+            postings.computeIfAbsent(trigram, key -> new Postings())
+                    .insert(position);
+        }
+    }
+
+    /**
+     * Get the value providers of the searched columns.
+     *
+     * @return List of value providers
+     */
+    List<ValueProvider<T, ?>> getValueProviders() {
+        return valueProviders;
+    }
+
+    private String textOf(T item) {
+        StringBuilder builder = new StringBuilder();
+        for (ValueProvider<T, ?> valueProvider : valueProviders) {
+            Object value = valueProvider.apply(item);
+            if (value != null) {
+                builder.append(value.toString().toLowerCase(Locale.ROOT));
+            }
+            builder.append(SEPARATOR);
+        }
+        return builder.toString();
+    }
+
+    private static Set<Long> trigrams(String text) {
+        Set<Long> trigrams = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            trigrams.add(trigram(text, i));
+        }
+        return trigrams;
+    }
+
+    private static long trigram(String text, int index) {
+        return ((long) text.charAt(index) << 32)
+                | ((long) text.charAt(index + 1) << 16)
+                | text.charAt(index + 2);
+    }
+
+    // Sorted list of item positions
+    private static class Postings {
+        private int[] positions = new int[4];
+        private int size;
+
+        int last() {
+            return positions[size - 1];
+        }
+
+        void append(int position) {
+            ensureCapacity();
+            positions[size++] = position;
+        }
+
+        boolean contains(int position) {
+            return Arrays.binarySearch(positions, 0, size, position) >= 0;
+        }
+
+        void insert(int position) {
+            int index = Arrays.binarySearch(positions, 0, size, position);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            ensureCapacity();
+            System.arraycopy(positions, index, positions, index + 1,
+                    size - index);
+            positions[index] = position;
+            size++;
+        }
+
+        void remove(int position) {
+            int index = Arrays.binarySearch(positions, 0, size, position);
+            if (index >= 0) {
+                System.arraycopy(positions, index + 1, positions, index,
+                        size - index - 1);
+                size--;
+            }
+        }
+
+        private void ensureCapacity() {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.vaadin.tatu;
+
+import com.vaadin.flow.component.ComponentEvent;
+
+/**
+ * Event fired when the rows of the BeanTable have been rendered. Reports a
+ * rough estimate of the server side memory retained by the rendered rows.
+ * The estimate is based on the number of the elements in the rows and the
+ * item ids kept in compact mode, it does not include the size of the beans.
+ * The number of the beans retained by the table is reported separately.
+ */
+@SuppressWarnings({ "serial", "rawtypes" })
+public class RowMemoryEstimateEvent<C extends BeanTable>
+        extends ComponentEvent<C> {
+    private int rowCount;
+    private int nodeCount;
+    private long estimatedBytes;
+    private boolean truncated;
+    private int retainedItemCount;
+
+    public RowMemoryEstimateEvent(C source, int rowCount, int nodeCount,
+            long estimatedBytes, boolean truncated) {
+        this(source, rowCount, nodeCount, estimatedBytes, truncated, rowCount);
+    }
+
+    public RowMemoryEstimateEvent(C source, int rowCount, int nodeCount,
+            long estimatedBytes, boolean truncated, int retainedItemCount) {
+        super(source, false);
+        this.rowCount = rowCount;
+        this.nodeCount = nodeCount;
+        this.estimatedBytes = estimatedBytes;
+        this.truncated = truncated;
+        this.retainedItemCount = retainedItemCount;
+    }
+
+    /**
+     * Get the number of the rendered rows.
+     * 
+     * @return int value
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get the number of the elements in the rendered rows.
+     * 
+     * @return int value
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Get the estimated memory retained by the rendered rows.
+     * 
+     * @return Estimate in bytes
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * Check whether the data exceeded the unpaged row limit.
+     * 
+     * @return true if the rows were truncated
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Get the number of the beans retained by the table between the
+     * requests in the rows and in the selection. This is 0 in compact mode.
+     * 
+     * @return int value
+     * @see BeanTable#setCompactMode(boolean)
+     */
+    public int getRetainedItemCount() {
+        return retainedItemCount;
+    }
+}
@@ -0,0 +1,71 @@
+package org.vaadin.tatu;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Internal deduplication of identical concurrent queries of the tables of all
+ * the sessions. The first caller of a query runs it, the callers of the same
+ * query arriving while it is in flight wait for the result instead of
+ * querying the data provider themselves. Lists are copied for the followers,
+ * the items are shared.
+ */
+class SingleFlight {
+
+    private static final Map<QueryFingerprint, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private SingleFlight() {
+    }
+
+    /**
+     * Run the query unless identical query is in flight, in which case its
+     * result is used.
+     *
+     * @param key
+     *            The fingerprint of the query
+     * @param query
+     *            The query
+     * @return The result
+     * @throws Exception
+     *             The exception of the query
+     */
+    @SuppressWarnings("unchecked")
+    static <R> R execute(QueryFingerprint key, Callable<R> query)
+            throws Exception {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> leader = inFlight.putIfAbsent(key, future);
+        if (leader != null) {
+            try {
+                Object result = leader.get();
+                return result instanceof List<?> list
+                        ? (R) new ArrayList<>(list)
+                        : (R) result;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+        try {
+            R result = query.call();
+            future.complete(result);
+            return result;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    // Number of the queries in flight, package protected for testing
+    static int getInFlightCount() {
+        return inFlight.size();
+    }
+}
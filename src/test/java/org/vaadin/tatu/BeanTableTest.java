@@ -1,12 +1,26 @@
 package org.vaadin.tatu;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -17,24 +31,37 @@ import java.util.stream.Stream;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.vaadin.tatu.BeanTable.AggregateFunction;
 import org.vaadin.tatu.BeanTable.BeanTableI18n;
 import org.vaadin.tatu.BeanTable.Column;
 import org.vaadin.tatu.BeanTable.ColumnAlignment;
 import org.vaadin.tatu.BeanTable.ColumnSelectMenu;
+import org.vaadin.tatu.BeanTable.ExportFormat;
 
 import com.vaadin.flow.component.Text;
 import com.vaadin.flow.component.UI;
 import com.vaadin.flow.component.html.Div;
 import com.vaadin.flow.component.html.Span;
+import com.vaadin.flow.data.provider.AbstractBackEndDataProvider;
 import com.vaadin.flow.data.provider.CallbackDataProvider;
 import com.vaadin.flow.data.provider.ConfigurableFilterDataProvider;
 import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.data.provider.SortDirection;
+import com.vaadin.flow.dom.DomEvent;
 import com.vaadin.flow.dom.Element;
 import com.vaadin.flow.dom.ThemeList;
+import com.vaadin.flow.function.SerializableSupplier;
+import com.vaadin.flow.internal.nodefeature.ElementListenerMap;
+import com.vaadin.flow.server.Command;
 import com.vaadin.flow.server.VaadinRequest;
 import com.vaadin.flow.server.VaadinService;
+import com.vaadin.flow.server.StreamResource;
 import com.vaadin.flow.server.VaadinSession;
 
+import elemental.json.Json;
+import elemental.json.JsonObject;
+
 /**
  * As most of the functionality of the BeanTable is implemented by using Element
  * API, it is possible to cover that functionality by unit tests. There is some
@@ -327,6 +354,7 @@ public class BeanTableTest {
                 table.bodyElement.getChild(2).getChild(2).getText());
 
         table.setPage(2);
+        fakeClientCommunication();
         Assert.assertEquals(2, fetches.get());
 
         div = table.footerElement.getChild(0).getChild(0).getChild(0);
@@ -345,6 +373,7 @@ public class BeanTableTest {
 
         // Can go to 6th page despite estimate being too small
         table.setPage(5);
+        fakeClientCommunication();
         Assert.assertEquals(3, fetches.get());
 
         div = table.footerElement.getChild(0).getChild(0).getChild(0);
@@ -459,6 +488,7 @@ public class BeanTableTest {
 
         // Go to 3rd page and assert footer
         table.setPage(2);
+        fakeClientCommunication();
         div = table.footerElement.getChild(0).getChild(0).getChild(0);
         Assert.assertEquals("Page 3 of 6", div.getChild(2).getText());
 
@@ -651,6 +681,219 @@ public class BeanTableTest {
         Assert.assertEquals("Zero", rows.getChild(0).getChild(1).getText());
     }
 
+    @Test
+    public void refreshItemsCoalesced() {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 10);
+        table.setColumns("firstName", "age");
+        table.getColumn("age").get().setAggregate(AggregateFunction.SUM);
+        List<Person> persons = IntStream.range(0, 100)
+                .mapToObj(i -> new Person(i, "first" + i, "last", 1, null,
+                        "1"))
+                .collect(Collectors.toList());
+        BeanTableListDataView<Person> dataView = table.setItems(persons);
+        table.setRefreshCoalescing(Duration.ZERO);
+        ui.add(table);
+        fakeClientCommunication();
+
+        // Refreshes are applied once before the client response
+        for (int i = 0; i < 10; i++) {
+            persons.get(0).setAge(i);
+            dataView.refreshItem(persons.get(0));
+        }
+        Assert.assertEquals("1",
+                table.bodyElement.getChild(0).getChild(2).getText());
+        fakeClientCommunication();
+        Assert.assertEquals("9",
+                table.bodyElement.getChild(0).getChild(2).getText());
+        Assert.assertEquals("108",
+                table.footerElement.getChild(0).getChild(2).getText());
+        Assert.assertEquals(9, table.getCoalescedRefreshCount());
+
+        // Bulk refresh
+        persons.get(1).setAge(2);
+        persons.get(50).setAge(2);
+        table.refreshItems(
+                Arrays.asList(persons.get(1), persons.get(50), persons.get(1)));
+        Assert.assertEquals("2",
+                table.bodyElement.getChild(1).getChild(2).getText());
+        Assert.assertEquals("110",
+                table.footerElement.getChild(0).getChild(2).getText());
+        Assert.assertEquals(10, table.getCoalescedRefreshCount());
+
+        // Refresh scheduled after the window is flushed when detached
+        table.setRefreshCoalescing(Duration.ofHours(1));
+        persons.get(0).setAge(21);
+        dataView.refreshItem(persons.get(0));
+        fakeClientCommunication();
+        Assert.assertEquals("9",
+                table.bodyElement.getChild(0).getChild(2).getText());
+        ui.remove(table);
+        Assert.assertEquals("21",
+                table.bodyElement.getChild(0).getChild(2).getText());
+        ui.add(table);
+        table.setRefreshCoalescing(Duration.ZERO);
+        persons.get(0).setAge(22);
+        dataView.refreshItem(persons.get(0));
+        fakeClientCommunication();
+        Assert.assertEquals("22",
+                table.bodyElement.getChild(0).getChild(2).getText());
+    }
+
+    @Test
+    public void refreshItemWithNewInstance() {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 10);
+        table.setColumns("firstName", "age");
+        table.getColumn("age").get().setAggregate(AggregateFunction.SUM);
+        List<Person> persons = IntStream.range(0, 100)
+                .mapToObj(i -> new Person(i, "first" + i, "last", 1, null,
+                        "1"))
+                .collect(Collectors.toList());
+        BeanTableListDataView<Person> dataView = table.setItems(persons);
+        table.setQuickSearchColumns(table.getColumn("firstName").get());
+        ui.add(table);
+        fakeClientCommunication();
+        table.setQuickSearch("first2");
+        fakeClientCommunication();
+        table.setQuickSearch(null);
+        fakeClientCommunication();
+
+        // Refreshed instance with the same id replaces the old one
+        dataView.refreshItem(new Person(2, "UPDATED", "last", 5, null, "1"));
+        table.setPage(1);
+        fakeClientCommunication();
+        table.setPage(0);
+        fakeClientCommunication();
+        Assert.assertEquals("UPDATED",
+                table.bodyElement.getChild(2).getChild(1).getText());
+        Assert.assertEquals("104",
+                table.footerElement.getChild(0).getChild(2).getText());
+        table.setQuickSearch("updated");
+        fakeClientCommunication();
+        Assert.assertEquals(1, table.bodyElement.getChildCount());
+        Assert.assertEquals("UPDATED",
+                table.bodyElement.getChild(0).getChild(1).getText());
+    }
+
+    @Test
+    public void refreshMovesItemInSortedData() {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 5);
+        table.setColumns("firstName", "age");
+        table.getColumn("age").get().setSortable(true);
+        List<Person> persons = IntStream.range(0, 100)
+                .mapToObj(i -> new Person(i, "first" + i, "last", i, null,
+                        "1"))
+                .collect(Collectors.toList());
+        AtomicInteger filtered = new AtomicInteger();
+        BeanTableListDataView<Person> dataView = table.setItems(persons);
+        dataView.setFilter(person -> {
+            filtered.incrementAndGet();
+            return person.getAge() != 50;
+        });
+        table.sort(table.getColumn("age").get(), SortDirection.DESCENDING);
+        ui.add(table);
+        fakeClientCommunication();
+        Assert.assertEquals("first99",
+                table.bodyElement.getChild(0).getChild(1).getText());
+
+        // Only the refreshed entries are moved, the data is not filtered
+        // again
+        filtered.set(0);
+        persons.get(5).setAge(200);
+        persons.get(50).setAge(97);
+        persons.get(98).setAge(50);
+        table.refreshItems(List.of(persons.get(5), persons.get(50),
+                persons.get(98)));
+        fakeClientCommunication();
+        table.setPage(1);
+        fakeClientCommunication();
+        table.setPage(0);
+        fakeClientCommunication();
+        Assert.assertEquals(3, filtered.get());
+        List<String> names = IntStream.range(0, 5)
+                .mapToObj(i -> table.bodyElement.getChild(i).getChild(1)
+                        .getText())
+                .collect(Collectors.toList());
+        // Equal items keep the original order
+        Assert.assertEquals(List.of("first5", "first99", "first50",
+                "first97", "first96"), names);
+        Assert.assertEquals(99, table.getRowCount());
+    }
+
+    @Test
+    public void valueProviderColumnSortableOnlyInMemory() {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 10);
+        BeanTable<Person>.Column<Person> name = table.addColumn("Name",
+                person -> person.getFirstName() + " " + person.getLastName());
+        name.setSortable(true);
+        List<Person> persons = IntStream.range(0, 20)
+                .mapToObj(i -> new Person(i, "first" + (19 - i), "last", i,
+                        null, "1"))
+                .collect(Collectors.toList());
+        table.setItems(persons);
+        ui.add(table);
+        table.sort(name, SortDirection.ASCENDING);
+        fakeClientCommunication();
+        Element header = table.headerElement.getChild(0).getChild(1);
+        Assert.assertTrue(name.isSortable());
+        Assert.assertEquals("asc", header.getAttribute("sort"));
+        Assert.assertEquals("first0 last",
+                table.bodyElement.getChild(0).getChild(1).getText());
+
+        // The back end ignores the in memory sorting
+        table.setItems(DataProvider.fromCallbacks(
+                query -> persons.stream().skip(query.getOffset())
+                        .limit(query.getLimit()),
+                query -> persons.size()));
+        fakeClientCommunication();
+        header = table.headerElement.getChild(0).getChild(1);
+        Assert.assertFalse(name.isSortable());
+        Assert.assertTrue(table.getSortOrder().isEmpty());
+        Assert.assertFalse(header.getClassList().contains("sortable"));
+        Assert.assertFalse(header.hasAttribute("sort"));
+        try {
+            table.sort(name, SortDirection.ASCENDING);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Column is not sortable", e.getMessage());
+        }
+
+        // Sort property makes the column sortable in the back end
+        name.setSortProperty("firstName");
+        Assert.assertTrue(name.isSortable());
+    }
+
+    @Test
+    public void setPageAfterSetItems() {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 10);
+        table.setColumns("firstName");
+        List<Person> persons = IntStream.range(0, 100)
+                .mapToObj(i -> new Person(i, "first" + i, "last", i, null,
+                        "1"))
+                .collect(Collectors.toList());
+        // Before attach
+        table.setItems(persons.subList(0, 50));
+        table.setPage(3);
+        ui.add(table);
+        fakeClientCommunication();
+        Assert.assertEquals("first30",
+                table.bodyElement.getChild(0).getChild(1).getText());
+
+        // After swapping the data
+        table.setItems(persons);
+        table.setPage(8);
+        fakeClientCommunication();
+        Assert.assertEquals("first80",
+                table.bodyElement.getChild(0).getChild(1).getText());
+
+        // Too large page is checked against the new size
+        table.setItems(persons.subList(0, 35));
+        table.setPage(9);
+        fakeClientCommunication();
+        Assert.assertEquals(3, table.getPage());
+        Assert.assertEquals("first30",
+                table.bodyElement.getChild(0).getChild(1).getText());
+    }
+
     @Test
     public void menuButton() {
         BeanTable<TestItem> table = new BeanTable<>();
@@ -696,6 +939,7 @@ public class BeanTableTest {
         table.setItems(items);
 
         ui.add(table);
+        fakeClientCommunication();
 
         // Assert that header is the same as configured
         Text header = (Text) col.getHeader();
@@ -742,6 +986,7 @@ public class BeanTableTest {
                 .getChild(1).getChild(0).getText());
 
         table.getDataProvider().refreshAll();
+        fakeClientCommunication();
 
         // Assert that new classname provider has been applied
         Assert.assertTrue(
@@ -885,6 +1130,7 @@ public class BeanTableTest {
         table.getLazyDataView().setItemCountEstimate(100);
 
         ui.add(table);
+        fakeClientCommunication();
 
         Element alertCell = table.bodyElement.getChild(0).getChild(0);
         Assert.assertEquals("Failed fetching data", alertCell.getText());
@@ -893,121 +1139,1830 @@ public class BeanTableTest {
         Assert.assertEquals("3", alertCell.getAttribute("colspan"));
     }
 
-    private void assertSelectedThemeSet(BeanTable<DataItem> table,
-            int... items) {
-        for (int item : items) {
-            Element row = table.bodyElement.getChild(item);
-            Assert.assertEquals("item at index " + item + " should be selected",
-                    "selected", row.getAttribute("theme"));
-            for (int i = 1; i < row.getChildCount(); i++) {
-                Assert.assertEquals("true",
-                        row.getChild(i).getAttribute("aria-selected"));
-            }
-        }
-    }
+    @Test
+    public void keysetPaging() {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 20);
+        table.setColumns("id", "firstName");
+        KeysetPersonProvider dataProvider = new KeysetPersonProvider();
+        table.setItems(dataProvider);
 
-    private void assertSelectedThemeNotSet(BeanTable<DataItem> table,
-            int... items) {
-        for (int item : items) {
-            Element row = table.bodyElement.getChild(item);
-            Assert.assertEquals(
-                    "item at index " + item + " should not be selected", null,
-                    row.getAttribute("theme"));
-            for (int i = 1; i < row.getChildCount(); i++) {
-                Assert.assertEquals("false",
-                        row.getChild(i).getAttribute("aria-selected"));
-            }
-        }
-    }
+        ui.add(table);
+        fakeClientCommunication();
 
-    public class TestItem {
-        private UUID id = UUID.randomUUID();
-        private String data;
+        // First page is fetched by offset
+        Assert.assertEquals(1, dataProvider.offsetFetches);
+        Assert.assertEquals("91",
+                table.bodyElement.getChild(0).getChild(1).getText());
 
-        public TestItem(String data) {
-            this.setData(data);
-        }
+        // Next pages are fetched after the key of the last item
+        table.setPage(1);
+        fakeClientCommunication();
+        table.setPage(2);
+        fakeClientCommunication();
+        Assert.assertEquals(1, dataProvider.offsetFetches);
+        Assert.assertEquals(2, dataProvider.keysetFetches);
+        Assert.assertEquals("131",
+                table.bodyElement.getChild(0).getChild(1).getText());
+        Assert.assertEquals("41",
+                table.bodyElement.getChild(0).getChild(0).getText());
 
-        public String getData() {
-            return data;
-        }
+        // Previous page is fetched before the key of the first item
+        table.setPage(1);
+        fakeClientCommunication();
+        Assert.assertEquals(3, dataProvider.keysetFetches);
+        Assert.assertEquals(20, table.bodyElement.getChildCount());
+        Assert.assertEquals("111",
+                table.bodyElement.getChild(0).getChild(1).getText());
+        Assert.assertEquals("130",
+                table.bodyElement.getChild(19).getChild(1).getText());
 
-        public void setData(String data) {
-            this.data = data;
-        }
+        // Jump to the last page falls back to offset
+        table.setPage(5);
+        fakeClientCommunication();
+        Assert.assertEquals(2, dataProvider.offsetFetches);
+        Assert.assertEquals(9, table.bodyElement.getChildCount());
+        Assert.assertEquals("191",
+                table.bodyElement.getChild(0).getChild(1).getText());
+    }
 
-        public UUID getId() {
-            return id;
-        }
+    @Test
+    public void countFreePaging() {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 20);
+        table.setColumns("firstName", "lastName");
+        PersonService personService = new PersonService();
+        AtomicInteger fetches = new AtomicInteger(0);
+        // No count callback, size can't be asked from the data provider
+        table.setItems(query -> {
+            fetches.incrementAndGet();
+            return personService
+                    .fetch(query.getOffset(), query.getLimit(), null).stream();
+        });
+        table.getLazyDataView().setItemCountEstimateIncrease(50);
+        table.getLazyDataView().setItemCountUnknown();
 
-        public void setId(UUID id) {
-            this.id = id;
-        }
-    }
+        ui.add(table);
+        fakeClientCommunication();
 
-    public class DataItem {
-        private String name;
-        private String data;
+        // Estimate is grown past the first page
+        Assert.assertTrue(table.getLazyDataView().isItemCountUnknown());
+        Assert.assertEquals(50,
+                table.getLazyDataView().getItemCountEstimate());
+        Assert.assertEquals(20, table.bodyElement.getChildCount());
+        Assert.assertEquals(-1, table.getRowCount());
+        Element div = table.footerElement.getChild(0).getChild(0).getChild(0);
+        Assert.assertEquals("1/many", div.getChild(2).getText());
+        Assert.assertFalse(div.getChild(4).isEnabled());
 
-        public DataItem(String name, String data) {
-            this.name = name;
-            this.data = data;
-        }
+        // Estimate grows as the user pages forward
+        table.setPage(1);
+        fakeClientCommunication();
+        table.setPage(2);
+        fakeClientCommunication();
+        table.setPage(3);
+        fakeClientCommunication();
+        Assert.assertEquals(100,
+                table.getLazyDataView().getItemCountEstimate());
+        div = table.footerElement.getChild(0).getChild(0).getChild(0);
+        Assert.assertEquals("4/many", div.getChild(2).getText());
 
-        public String getName() {
-            return name;
-        }
+        // Last page reached, the count is now exact
+        table.setPage(4);
+        fakeClientCommunication();
+        table.setPage(5);
+        fakeClientCommunication();
+        Assert.assertEquals(9, table.bodyElement.getChildCount());
+        Assert.assertEquals(109, table.getRowCount());
+        div = table.footerElement.getChild(0).getChild(0).getChild(0);
+        Assert.assertEquals("6/6", div.getChild(2).getText());
+        Assert.assertTrue(div.getChild(4).isEnabled());
+        Assert.assertEquals(6, fetches.get());
+    }
 
-        public void setName(String name) {
-            this.name = name;
-        }
+    @Test
+    public void coalescedResets() {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 20);
+        table.setColumns("firstName", "lastName");
+        PersonService personService = new PersonService();
+        AtomicInteger fetches = new AtomicInteger(0);
+        CallbackDataProvider<Person, String> dataProvider = DataProvider
+                .fromFilteringCallbacks(query -> {
+                    fetches.incrementAndGet();
+                    return personService.fetch(query.getOffset(),
+                            query.getLimit(), query.getFilter()).stream();
+                }, query -> personService.count(query.getFilter()));
+        ConfigurableFilterDataProvider<Person, Void, String> dp = dataProvider
+                .withConfigurableFilter();
+        table.setItems(dp);
+        table.setSelectionEnabled(true);
 
-        public String getData() {
-            return data;
-        }
+        ui.add(table);
+        fakeClientCommunication();
+        Assert.assertEquals(1, fetches.get());
+        table.setPage(2);
+        fakeClientCommunication();
+        Assert.assertEquals(2, fetches.get());
 
-        public void setData(String data) {
-            this.data = data;
-        }
-    }
+        // Set filter, go to page 0 and select item in the same round trip
+        Person person = table.rows.get(0).getItem();
+        dp.setFilter("a");
+        table.setPage(0);
+        table.select(person);
+        fakeClientCommunication();
 
-    public class FaultyDataService {
-        FaultyDataRepository repository = new FaultyDataRepository();
+        Assert.assertEquals(3, fetches.get());
+        Assert.assertEquals(1, table.getCoalescedResetCount());
+        Assert.assertEquals(0, table.getPage());
 
-        public Stream<DataItem> fetchPersons() {
-            return repository.fetch().stream();
-        }
+        // Row count is up to date when asked before the client response
+        dp.setFilter("ben");
+        Assert.assertEquals(3, table.getRowCount());
+        fakeClientCommunication();
+        Assert.assertEquals(4, fetches.get());
     }
 
-    public class FaultyDataRepository {
-        public List<DataItem> fetch() {
-            return null;
-        }
-    }
+    @Test
+    public void indexedItemAccess() {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 20);
+        table.setColumns("firstName", "lastName");
+        PersonService personService = new PersonService();
+        AtomicInteger fetches = new AtomicInteger(0);
+        CallbackDataProvider<Person, Void> dataProvider = DataProvider
+                .fromCallbacks(query -> {
+                    fetches.incrementAndGet();
+                    return personService.fetch(query.getOffset(),
+                            query.getLimit(), null).stream();
+                }, query -> personService.count(null));
+        BeanTableDataView<Person> dataView = table
+                .setItems((DataProvider<Person, Void>) dataProvider);
 
-    record DataRecord(String name, String data) {
-    }
+        ui.add(table);
+        fakeClientCommunication();
+        Assert.assertEquals(1, fetches.get());
 
-    private void fakeClientCommunication() {
-        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
-        ui.getInternals().getStateTree().collectChanges(ignore -> {
-        });
+        // Items on the current page are served from the rendered rows
+        Assert.assertEquals("Brayden", dataView.getItem(2).getFirstName());
+        List<Person> items = dataView.getItems(10, 12);
+        Assert.assertEquals(table.rows.get(10).getItem(), items.get(0));
+        Assert.assertEquals(table.rows.get(12).getItem(), items.get(1));
+        Assert.assertEquals(1, fetches.get());
+
+        // Items outside of the current page are fetched with one query
+        items = dataView.getItems(45, 2, 40);
+        Assert.assertEquals(2, fetches.get());
+        Assert.assertEquals("Layla", items.get(2).getFirstName());
+        Assert.assertEquals("Brayden", items.get(1).getFirstName());
+        Assert.assertEquals(personService.fetchAll().get(45), items.get(0));
+
+        try {
+            dataView.getItem(109);
+            Assert.fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            Assert.assertEquals(
+                    "Given index 109 is outside of the accepted range '0 - 108'",
+                    e.getMessage());
+        }
     }
 
-    public static class MockUI extends UI {
+    @Test
+    public void indexOutOfFilteredData() {
+        List<Person> persons = IntStream.range(0, 50)
+                .mapToObj(i -> new Person(i, "first" + i, "last", i % 10,
+                        null, "1"))
+                .collect(Collectors.toList());
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 5);
+        table.setColumns("firstName", "age");
+        table.setItems(persons);
+        BeanTableDataView<Person> dataView = table.getGenericDataView();
+        table.getColumn("age").get().setFilterValues(Arrays.asList(1, 2));
+        ui.add(table);
+        fakeClientCommunication();
 
-        public MockUI() {
-            this(findOrcreateSession());
+        try {
+            dataView.getItems(0, 10);
+            Assert.fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            Assert.assertEquals(
+                    "Given index 10 is outside of the accepted range '0 - 9'",
+                    e.getMessage());
         }
 
-        public MockUI(VaadinSession session) {
-            getInternals().setSession(session);
-            setCurrent(this);
+        // Lazy data view throws too
+        BeanTable<Person> lazyTable = new BeanTable<>(Person.class, false, 5);
+        lazyTable.setColumns("firstName");
+        lazyTable.setItems(DataProvider.fromCallbacks(
+                query -> persons.stream().skip(query.getOffset())
+                        .limit(query.getLimit()),
+                query -> persons.size()));
+        ui.add(lazyTable);
+        fakeClientCommunication();
+        Assert.assertEquals("first49",
+                lazyTable.getLazyDataView().getItems(49).get(0)
+                        .getFirstName());
+        try {
+            lazyTable.getLazyDataView().getItems(2, 50);
+            Assert.fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            Assert.assertEquals(
+                    "Given index 50 is outside of the accepted range '0 - 49'",
+                    e.getMessage());
         }
+        lazyTable.getLazyDataView().setItemCountUnknown();
+        fakeClientCommunication();
+        try {
+            lazyTable.getLazyDataView().getItems(-1);
+            Assert.fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            Assert.assertEquals("Given index -1 is outside of the data",
+                    e.getMessage());
+        }
+    }
 
-        @Override
-        protected void init(VaadinRequest request) {
-            // Do nothing
+    @Test
+    public void progressiveRendering() {
+        BeanTable<DataItem> table = new BeanTable<>();
+        table.addColumn("Name", item -> item.getName());
+        List<DataItem> items = IntStream.range(0, 5)
+                .mapToObj(i -> new DataItem("name" + i, "data" + i))
+                .collect(Collectors.toList());
+        List<Runnable> chunks = new ArrayList<>();
+        // Zero time budget renders one row per chunk
+        table.setProgressiveRendering(Duration.ZERO, chunks::add);
+        table.setItems(items).addItemCountChangeListener(event -> {
+            count = event.getItemCount();
+        });
+        count = 0;
+
+        ui.add(table);
+        fakeClientCommunication();
+
+        // First chunk is rendered immediately, the next one is scheduled
+        Assert.assertEquals(1, table.bodyElement.getChildCount());
+        Assert.assertEquals(1, chunks.size());
+        Assert.assertEquals(-1, table.getRowCount());
+        Assert.assertEquals(0, count);
+
+        for (int i = 0; i < 4; i++) {
+            table.renderNextChunk();
+        }
+        Assert.assertEquals(5, table.bodyElement.getChildCount());
+        Assert.assertEquals("name4",
+                table.bodyElement.getChild(4).getChild(1).getText());
+        Assert.assertEquals("5",
+                table.bodyElement.getChild(4).getAttribute("aria-rowindex"));
+        Assert.assertEquals(4, chunks.size());
+        Assert.assertEquals(5, table.getRowCount());
+        Assert.assertEquals(5, count);
+
+        // Nothing left to render
+        table.renderNextChunk();
+        Assert.assertEquals(5, table.bodyElement.getChildCount());
+    }
+
+    @Test
+    public void backgroundFetchDiscardsSupersededResults() {
+        List<Query<Person, Void>> queries = new ArrayList<>();
+        List<Person> persons = IntStream.range(0, 50)
+                .mapToObj(i -> new Person(i, "first" + i, "last", 20, null,
+                        "1"))
+                .collect(Collectors.toList());
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 5);
+        table.setColumns("firstName");
+        table.setItems(DataProvider.fromCallbacks(query -> {
+            queries.add(query);
+            return persons.stream().skip(query.getOffset())
+                    .limit(query.getLimit());
+        }, query -> persons.size()));
+        List<Runnable> fetches = new ArrayList<>();
+        table.setFetchExecutor(fetches::add);
+        ui.add(table);
+        fakeClientCommunication();
+
+        Assert.assertEquals(1, fetches.size());
+        Assert.assertEquals("true",
+                table.getElement().getAttribute("aria-busy"));
+        Assert.assertTrue(table.rows.isEmpty());
+        fetches.remove(0).run();
+        Assert.assertEquals(1, queries.size());
+        Assert.assertFalse(table.getElement().hasAttribute("aria-busy"));
+        Assert.assertEquals("first0",
+                table.bodyElement.getChild(0).getChild(1).getText());
+
+        // Rapid navigation, only the final page is fetched
+        queries.clear();
+        for (int page = 1; page <= 3; page++) {
+            table.setPage(page);
+            fakeClientCommunication();
+        }
+        Assert.assertEquals(3, fetches.size());
+        // Previous page is shown meanwhile
+        Assert.assertEquals("first0",
+                table.bodyElement.getChild(0).getChild(1).getText());
+        fetches.forEach(Runnable::run);
+        Assert.assertEquals(1, queries.size());
+        Assert.assertEquals(15, queries.get(0).getOffset());
+        Assert.assertEquals("first15",
+                table.bodyElement.getChild(0).getChild(1).getText());
+
+        // Result of a fetch superseded while running is discarded
+        fetches.clear();
+        queries.clear();
+        table.setPage(4);
+        fakeClientCommunication();
+        Runnable superseded = fetches.remove(0);
+        table.setPage(5);
+        fakeClientCommunication();
+        fetches.remove(0).run();
+        Assert.assertEquals("first25",
+                table.bodyElement.getChild(0).getChild(1).getText());
+        superseded.run();
+        Assert.assertEquals(1, queries.size());
+        Assert.assertEquals("first25",
+                table.bodyElement.getChild(0).getChild(1).getText());
+
+        // Query is created from the state when the fetch was requested
+        fetches.clear();
+        queries.clear();
+        table.getColumn("firstName").get().setSortable(true);
+        table.setPage(6);
+        fakeClientCommunication();
+        table.sort(table.getColumn("firstName").get(),
+                SortDirection.DESCENDING);
+        fetches.remove(0).run();
+        Assert.assertEquals(1, queries.size());
+        Assert.assertEquals(30, queries.get(0).getOffset());
+        Assert.assertTrue(queries.get(0).getSortOrders().isEmpty());
+    }
+
+    @Test
+    public void fetchPolicyRetriesAndKeepsStalePage() {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        List<Person> persons = IntStream.range(0, 50)
+                .mapToObj(i -> new Person(i, "first" + i, "last", 20, null,
+                        "1"))
+                .collect(Collectors.toList());
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 5);
+        table.setColumns("firstName");
+        DataProvider<Person, Void> dataProvider = DataProvider
+                .fromCallbacks(query -> {
+                    calls.incrementAndGet();
+                    if (failures.getAndDecrement() > 0) {
+                        throw new IllegalStateException("Database hiccup");
+                    }
+                    return persons.stream().skip(query.getOffset())
+                            .limit(query.getLimit());
+                }, query -> persons.size());
+        table.setItems(dataProvider);
+        table.setFetchPolicy(new FetchPolicy().setRetries(2, Duration.ZERO)
+                .setCircuitBreaker(3, Duration.ofMinutes(1))
+                .setStalePageShown(true));
+        // Retries are done only in the background
+        table.setFetchExecutor(Runnable::run);
+        ui.add(table);
+        fakeClientCommunication();
+        Assert.assertEquals("first0",
+                table.bodyElement.getChild(0).getChild(1).getText());
+
+        // Failure is retried
+        calls.set(0);
+        failures.set(2);
+        table.setPage(1);
+        fakeClientCommunication();
+        Assert.assertEquals(3, calls.get());
+        Assert.assertEquals("first5",
+                table.bodyElement.getChild(0).getChild(1).getText());
+        Assert.assertFalse(table.getElement().hasAttribute("stale"));
+
+        // Retries exhausted, previous page is kept as stale and circuit
+        // opens
+        calls.set(0);
+        failures.set(10);
+        table.setPage(2);
+        fakeClientCommunication();
+        Assert.assertEquals(3, calls.get());
+        Assert.assertEquals("first5",
+                table.bodyElement.getChild(0).getChild(1).getText());
+        Assert.assertTrue(table.getElement().hasAttribute("stale"));
+        Assert.assertEquals(1, table.getPage());
+        Assert.assertTrue(FetchPolicy.isCircuitOpen(dataProvider));
+
+        // Open circuit fails fast without calling the data provider
+        calls.set(0);
+        failures.set(0);
+        table.setPage(2);
+        fakeClientCommunication();
+        Assert.assertEquals(0, calls.get());
+        Assert.assertTrue(table.getElement().hasAttribute("stale"));
+
+        // Without stale page the error is shown
+        table.getFetchPolicy().setStalePageShown(false);
+        table.setPage(2);
+        fakeClientCommunication();
+        Assert.assertEquals("error-occurred", table.bodyElement.getChild(0)
+                .getChild(0).getAttribute("class"));
+        Assert.assertFalse(table.getElement().hasAttribute("stale"));
+
+        // Fetch in the request thread is not retried
+        BeanTable<Person> foreground = new BeanTable<>(Person.class, false,
+                5);
+        foreground.setColumns("firstName");
+        foreground.setItems(DataProvider.fromCallbacks(query -> {
+            calls.incrementAndGet();
+            throw new IllegalStateException("Database hiccup");
+        }, query -> persons.size()));
+        foreground.setFetchPolicy(
+                new FetchPolicy().setRetries(2, Duration.ofMinutes(1)));
+        calls.set(0);
+        ui.add(foreground);
+        fakeClientCommunication();
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals("error-occurred", foreground.bodyElement
+                .getChild(0).getChild(0).getAttribute("class"));
+    }
+
+    @Test
+    public void fetchPolicyTimeout() {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 5);
+        table.setColumns("firstName");
+        table.setItems(DataProvider.fromCallbacks(query -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return Stream.empty();
+        }, query -> 0));
+        table.setFetchPolicy(
+                new FetchPolicy().setTimeout(Duration.ofMillis(50)));
+        ui.add(table);
+        long start = System.nanoTime();
+        fakeClientCommunication();
+        Assert.assertTrue(System.nanoTime() - start < 2_000_000_000L);
+        Assert.assertEquals("error-occurred", table.bodyElement.getChild(0)
+                .getChild(0).getAttribute("class"));
+    }
+
+    @Test
+    public void unpagedRowLimit() {
+        BeanTable<DataItem> table = new BeanTable<>();
+        table.addColumn("Name", item -> item.getName());
+        List<DataItem> items = IntStream.range(0, 100)
+                .mapToObj(i -> new DataItem("name" + i, "data" + i))
+                .collect(Collectors.toList());
+        List<RowMemoryEstimateEvent<BeanTable<DataItem>>> events = new ArrayList<>();
+        table.addRowMemoryEstimateListener(events::add);
+        table.setUnpagedRowLimit(50, BeanTable.RowLimitMode.TRUNCATE);
+        table.setItems(items);
+
+        ui.add(table);
+        fakeClientCommunication();
+
+        Assert.assertEquals(50, table.bodyElement.getChildCount());
+        Assert.assertTrue(table.isTruncated());
+        Assert.assertEquals(-1, table.getPageLength());
+        Assert.assertEquals("Showing first 50 rows",
+                table.footerElement.getChild(0).getChild(0).getText());
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(50, events.get(0).getRowCount());
+        Assert.assertTrue(events.get(0).isTruncated());
+        Assert.assertTrue(events.get(0).getEstimatedBytes() > 0);
+
+        // Within the limit all rows are shown without the notice
+        table.setItems(items.subList(0, 50));
+        fakeClientCommunication();
+        Assert.assertEquals(50, table.bodyElement.getChildCount());
+        Assert.assertFalse(table.isTruncated());
+        Assert.assertEquals(0, table.footerElement.getChildCount());
+
+        // Exceeding the limit switches to paged mode
+        table.setUnpagedRowLimit(30, BeanTable.RowLimitMode.PAGED);
+        table.setItems(items);
+        fakeClientCommunication();
+        Assert.assertEquals(30, table.getPageLength());
+        Assert.assertEquals(30, table.bodyElement.getChildCount());
+        Assert.assertEquals(100, table.getRowCount());
+        Assert.assertFalse(table.isTruncated());
+
+        // The first page is fetched only once when switching
+        AtomicInteger fetches = new AtomicInteger();
+        BeanTable<DataItem> backEndTable = new BeanTable<>();
+        backEndTable.addColumn("Name", item -> item.getName());
+        backEndTable.setUnpagedRowLimit(30, BeanTable.RowLimitMode.PAGED);
+        backEndTable.setItems(DataProvider.fromCallbacks(query -> {
+            fetches.incrementAndGet();
+            return items.stream().skip(query.getOffset())
+                    .limit(query.getLimit());
+        }, query -> items.size()));
+        ui.add(backEndTable);
+        fakeClientCommunication();
+        Assert.assertEquals(30, backEndTable.getPageLength());
+        Assert.assertEquals(30, backEndTable.bodyElement.getChildCount());
+        Assert.assertEquals("name0",
+                backEndTable.bodyElement.getChild(0).getChild(1).getText());
+        Assert.assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void sortableColumns() {
+        BeanTable<DataItem> table = new BeanTable<>(3);
+        BeanTable<DataItem>.Column<DataItem> name = table
+                .addColumn("Name", item -> item.getName()).setSortable(true);
+        BeanTable<DataItem>.Column<DataItem> data = table
+                .addColumn("Data", item -> item.getData()).setSortable(true);
+        List<DataItem> items = IntStream.range(0, 10)
+                .mapToObj(i -> new DataItem("name" + (i % 2), "data" + i))
+                .collect(Collectors.toList());
+        table.setItems(items);
+        ui.add(table);
+        fakeClientCommunication();
+
+        table.sort(data, SortDirection.DESCENDING);
+        fakeClientCommunication();
+        Assert.assertEquals("data9",
+                table.bodyElement.getChild(0).getChild(2).getText());
+        Element dataHeader = table.headerElement.getChild(0).getChild(2);
+        Assert.assertEquals("descending", dataHeader.getAttribute("aria-sort"));
+
+        // Click replaces the sort order, shift click adds to it
+        table.toggleSort(name, false);
+        table.toggleSort(data, true);
+        table.toggleSort(data, true);
+        fakeClientCommunication();
+        Assert.assertEquals(Arrays.asList(name, data), table.getSortOrder());
+        Assert.assertEquals(SortDirection.DESCENDING, data.getSortDirection());
+        Assert.assertEquals("name0",
+                table.bodyElement.getChild(0).getChild(1).getText());
+        Assert.assertEquals("data8",
+                table.bodyElement.getChild(0).getChild(2).getText());
+        Assert.assertEquals("2", dataHeader.getAttribute("sort-priority"));
+
+        // Third click clears the sort of the column
+        table.toggleSort(data, true);
+        table.toggleSort(name, true);
+        table.toggleSort(name, true);
+        fakeClientCommunication();
+        Assert.assertTrue(table.getSortOrder().isEmpty());
+        Assert.assertEquals("data0",
+                table.bodyElement.getChild(0).getChild(2).getText());
+        Assert.assertEquals("none", dataHeader.getAttribute("aria-sort"));
+    }
+
+    @Test
+    public void sortOrderPushedToBackEnd() {
+        List<Query<Person, Void>> queries = new ArrayList<>();
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 5);
+        table.setColumns("firstName", "age");
+        table.getColumn("age").get().setSortable(true);
+        table.setItems(DataProvider.fromCallbacks(query -> {
+            queries.add(query);
+            return Stream.of(new Person(1, "A", "B", 20, null, "1"))
+                    .skip(query.getOffset()).limit(query.getLimit());
+        }, query -> 1));
+        ui.add(table);
+        fakeClientCommunication();
+
+        queries.clear();
+        table.sort(table.getColumn("age").get(), SortDirection.ASCENDING);
+        fakeClientCommunication();
+        Assert.assertEquals(1, queries.size());
+        Assert.assertEquals(1, queries.get(0).getSortOrders().size());
+        Assert.assertEquals("age",
+                queries.get(0).getSortOrders().get(0).getSorted());
+        Assert.assertEquals(SortDirection.ASCENDING,
+                queries.get(0).getSortOrders().get(0).getDirection());
+    }
+
+    @Test
+    public void visiblePropertiesPushedToBackEnd() {
+        List<Query<Person, Void>> queries = new ArrayList<>();
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 5);
+        table.setColumns("firstName", "lastName", "age");
+        table.addColumn("Custom", person -> "custom");
+        table.setItems(DataProvider.fromCallbacks(query -> {
+            queries.add(query);
+            return Stream.of(new Person(1, "A", "B", 20, null, "1"))
+                    .skip(query.getOffset()).limit(query.getLimit());
+        }, query -> 1));
+        table.getColumn("lastName").get().setVisible(false);
+        ui.add(table);
+        fakeClientCommunication();
+
+        Assert.assertEquals(1, queries.size());
+        Assert.assertTrue(queries.get(0) instanceof ProjectionQuery);
+        Assert.assertEquals(Arrays.asList("firstName", "age"),
+                new ArrayList<>(((ProjectionQuery<Person, Void>) queries
+                        .get(0)).getVisibleProperties()));
+
+        // Showing the column fetches the items with the property
+        queries.clear();
+        table.getColumn("lastName").get().setVisible(true);
+        fakeClientCommunication();
+        Assert.assertEquals(1, queries.size());
+        Assert.assertEquals(Arrays.asList("firstName", "lastName", "age"),
+                new ArrayList<>(((ProjectionQuery<Person, Void>) queries
+                        .get(0)).getVisibleProperties()));
+
+        // Hiding does not need a refetch
+        queries.clear();
+        table.getColumn("age").get().setVisible(false);
+        fakeClientCommunication();
+        Assert.assertEquals(0, queries.size());
+    }
+
+    @Test
+    public void topKSelection() {
+        List<Integer> items = Arrays.asList(5, 3, 9, 1, 7, 3, 8, 2);
+        Assert.assertEquals(Arrays.asList(1, 2, 3),
+                InMemoryPager.topK(items, Integer::compare, 3));
+        Assert.assertEquals(Arrays.asList(9, 8),
+                InMemoryPager.topK(items, (a, b) -> Integer.compare(b, a), 2));
+        Assert.assertTrue(
+                InMemoryPager.topK(items, Integer::compare, 0).isEmpty());
+
+        // Paged sorted in memory data uses the top K selection, equal items
+        // keep their original order
+        BeanTable<DataItem> table = new BeanTable<>(5);
+        table.addColumn("Name", item -> item.getName()).setSortable(true);
+        table.addColumn("Data", item -> item.getData());
+        List<DataItem> dataItems = IntStream.range(0, 100)
+                .mapToObj(i -> new DataItem("name" + (i % 10), "data" + i))
+                .collect(Collectors.toList());
+        table.setItems(dataItems);
+        table.sort(table.getColumns().get(0), SortDirection.DESCENDING);
+        ui.add(table);
+        fakeClientCommunication();
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("name9",
+                    table.bodyElement.getChild(i).getChild(1).getText());
+            Assert.assertEquals("data" + (9 + i * 10),
+                    table.bodyElement.getChild(i).getChild(2).getText());
+        }
+        table.setPage(2);
+        fakeClientCommunication();
+        Assert.assertEquals("name8",
+                table.bodyElement.getChild(0).getChild(1).getText());
+        Assert.assertEquals("data8",
+                table.bodyElement.getChild(0).getChild(2).getText());
+    }
+
+    @Test
+    public void cachedInMemoryPermutation() {
+        BeanTable<DataItem> table = new BeanTable<>(5);
+        table.addColumn("Name", item -> item.getName()).setSortable(true);
+        List<DataItem> items = IntStream.range(0, 100)
+                .mapToObj(i -> new DataItem("name" + i, "data" + i))
+                .collect(Collectors.toList());
+        AtomicInteger tests = new AtomicInteger();
+        BeanTableListDataView<DataItem> dataView = table.setItems(items);
+        dataView.setFilter(item -> {
+            tests.incrementAndGet();
+            return !item.getName().endsWith("0");
+        });
+        table.sort(table.getColumns().get(0), SortDirection.DESCENDING);
+        ui.add(table);
+        fakeClientCommunication();
+        Assert.assertEquals(100, tests.get());
+        Assert.assertEquals(90, table.getRowCount());
+        Assert.assertEquals("name99",
+                table.bodyElement.getChild(0).getChild(1).getText());
+
+        // Paging uses the cached permutation
+        table.setPage(1);
+        fakeClientCommunication();
+        table.setPage(17);
+        fakeClientCommunication();
+        Assert.assertEquals(100, tests.get());
+        Assert.assertEquals("name14",
+                table.bodyElement.getChild(0).getChild(1).getText());
+
+        // Data change rebuilds the permutation
+        items.add(new DataItem("name999", "data"));
+        dataView.refreshAll();
+        table.setPage(0);
+        fakeClientCommunication();
+        Assert.assertEquals(201, tests.get());
+        Assert.assertEquals("name999",
+                table.bodyElement.getChild(0).getChild(1).getText());
+    }
+
+    @Test
+    public void parallelInMemoryProcessing() {
+        List<DataItem> items = IntStream.range(0, 1000)
+                .mapToObj(i -> new DataItem("name" + (i % 100), "data" + i))
+                .collect(Collectors.toList());
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        List<List<String>> pages = new ArrayList<>();
+        for (int threshold : new int[] { -1, 100 }) {
+            BeanTable<DataItem> table = new BeanTable<>(10);
+            table.addColumn("Name", item -> item.getName()).setSortable(true);
+            table.addColumn("Data", item -> item.getData());
+            table.setParallelInMemoryProcessing(threshold,
+                    new ForkJoinPool(4));
+            table.setItems(items).setFilter(item -> {
+                threads.add(Thread.currentThread());
+                return !item.getName().endsWith("5");
+            });
+            table.sort(table.getColumns().get(0), SortDirection.ASCENDING);
+            ui.add(table);
+            fakeClientCommunication();
+            Assert.assertEquals(900, table.getRowCount());
+            List<String> page = new ArrayList<>();
+            for (int p : new int[] { 0, 1, 50 }) {
+                table.setPage(p);
+                fakeClientCommunication();
+                table.rows.forEach(row -> page.add(row.getItem().getData()));
+            }
+            pages.add(page);
+        }
+        // Same result as with sequential processing
+        Assert.assertEquals(pages.get(0), pages.get(1));
+        Assert.assertEquals("data0", pages.get(0).get(0));
+        Assert.assertTrue(threads.stream()
+                .anyMatch(thread -> thread != Thread.currentThread()));
+    }
+
+    @Test
+    public void bitmapColumnFilters() {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 10);
+        table.setColumns("firstName", "age", "maritalStatus");
+        List<Person> persons = IntStream.range(0, 1000)
+                .mapToObj(i -> new Person(i, "first" + i, "last", i % 50,
+                        null, "1", Person.MaritalStatus.values()[i
+                                % Person.MaritalStatus.values().length],
+                        null))
+                .collect(Collectors.toList());
+        table.setItems(persons);
+        ui.add(table);
+        fakeClientCommunication();
+        Assert.assertEquals(1000, table.getRowCount());
+
+        BeanTable<Person>.Column<Person> status = table
+                .getColumn("maritalStatus").get();
+        BeanTable<Person>.Column<Person> age = table.getColumn("age").get();
+        status.setFilterValues(Arrays.asList(Person.MaritalStatus.values()[0],
+                Person.MaritalStatus.values()[1]));
+        age.setFilterValues(Arrays.asList(10, 20, 30));
+        long expected = persons.stream()
+                .filter(person -> status.getFilterValues()
+                        .contains(person.getMaritalStatus()))
+                .filter(person -> age.getFilterValues()
+                        .contains(person.getAge()))
+                .count();
+        Assert.assertEquals(expected, table.getRowCount());
+        Assert.assertTrue(
+                table.inMemoryPager.isBitmapIndexed(status.getValueProvider()));
+        Assert.assertTrue(
+                table.inMemoryPager.isBitmapIndexed(age.getValueProvider()));
+        table.rows.forEach(row -> Assert.assertTrue(Arrays.asList(10, 20, 30)
+                .contains(row.getItem().getAge())));
+
+        // High cardinality column is filtered by scanning
+        BeanTable<Person>.Column<Person> name = table.getColumn("firstName")
+                .get();
+        name.setFilterValues(Arrays.asList("first10", "first11"));
+        Assert.assertEquals(1, table.getRowCount());
+        Assert.assertFalse(
+                table.inMemoryPager.isBitmapIndexed(name.getValueProvider()));
+
+        status.setFilterValues(null);
+        age.setFilterValues(null);
+        name.setFilterValues(null);
+        Assert.assertEquals(1000, table.getRowCount());
+    }
+
+    @Test
+    public void quickSearch() {
+        BeanTable<DataItem> table = new BeanTable<>(10);
+        AtomicInteger calls = new AtomicInteger();
+        BeanTable<DataItem>.Column<DataItem> name = table.addColumn("Name",
+                item -> {
+                    calls.incrementAndGet();
+                    return item.getName();
+                });
+        table.addColumn("Data", item -> item.getData());
+        List<DataItem> items = IntStream.range(0, 1000)
+                .mapToObj(i -> new DataItem("Name" + i, "data" + i))
+                .collect(Collectors.toList());
+        BeanTableListDataView<DataItem> dataView = table.setItems(items);
+        table.setQuickSearchColumns(name);
+        ui.add(table);
+        fakeClientCommunication();
+
+        table.setQuickSearch("ME12");
+        Assert.assertEquals(11, table.getRowCount());
+        Assert.assertEquals("Name12",
+                table.bodyElement.getChild(0).getChild(1).getText());
+        table.setQuickSearch("e99");
+        Assert.assertEquals(11, table.getRowCount());
+        // Short search text
+        table.setQuickSearch("7");
+        Assert.assertEquals(271, table.getRowCount());
+        // Data column is not searched
+        table.setQuickSearch("data1");
+        Assert.assertEquals(0, table.getRowCount());
+        calls.set(0);
+
+        // Refreshed item is updated in the index
+        table.setQuickSearch("renamed");
+        Assert.assertEquals(0, table.getRowCount());
+        items.get(500).setName("Renamed");
+        dataView.refreshItem(items.get(500));
+        table.setQuickSearch("renamed");
+        Assert.assertEquals(1, table.getRowCount());
+        Assert.assertTrue(calls.get() < 10);
+
+        table.setQuickSearch(null);
+        Assert.assertEquals(1000, table.getRowCount());
+    }
+
+    @Test
+    public void footerAggregates() {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 10);
+        table.setColumns("firstName", "age");
+        BeanTable<Person>.Column<Person> age = table.getColumn("age").get();
+        age.setAggregate(AggregateFunction.SUM);
+        List<Person> persons = IntStream.range(0, 100)
+                .mapToObj(i -> new Person(i, "first" + i, "last", i, null,
+                        "1"))
+                .collect(Collectors.toList());
+        BeanTableListDataView<Person> dataView = table.setItems(persons);
+        ui.add(table);
+        fakeClientCommunication();
+
+        Element aggregates = table.footerElement.getChild(0);
+        Assert.assertEquals("4950", aggregates.getChild(2).getText());
+        Assert.assertEquals("sum",
+                aggregates.getChild(2).getAttribute("aggregate"));
+        Assert.assertEquals("", aggregates.getChild(1).getText());
+
+        // Filter is applied, refreshed item is updated incrementally
+        dataView.setFilter(person -> person.getAge() < 10);
+        fakeClientCommunication();
+        Assert.assertEquals("45",
+                table.footerElement.getChild(0).getChild(2).getText());
+        persons.get(9).setAge(100);
+        dataView.refreshItem(persons.get(9));
+        Assert.assertEquals("36",
+                table.footerElement.getChild(0).getChild(2).getText());
+        persons.get(9).setAge(9);
+        persons.get(50).setAge(5);
+        dataView.refreshItem(persons.get(9));
+        dataView.refreshItem(persons.get(50));
+        Assert.assertEquals("50",
+                table.footerElement.getChild(0).getChild(2).getText());
+
+        age.setAggregate(AggregateFunction.MAX);
+        fakeClientCommunication();
+        Assert.assertEquals("9",
+                table.footerElement.getChild(0).getChild(2).getText());
+        age.setAggregate(AggregateFunction.AVG,
+                value -> String.format("%.1f", value.doubleValue()));
+        fakeClientCommunication();
+        Assert.assertEquals(String.format("%.1f", 50 / 11.0),
+                table.footerElement.getChild(0).getChild(2).getText());
+    }
+
+    @Test
+    public void footerAggregatesPushedToBackEnd() {
+        List<Map<String, AggregateFunction>> requests = new ArrayList<>();
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 10);
+        table.setColumns("firstName", "age");
+        table.getColumn("age").get().setAggregate(AggregateFunction.MAX);
+        table.setItems(new AggregatePersonProvider(requests));
+        ui.add(table);
+        fakeClientCommunication();
+
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals(AggregateFunction.MAX,
+                requests.get(0).get("age"));
+        Assert.assertEquals("99",
+                table.footerElement.getChild(0).getChild(2).getText());
+
+        // Paging does not query the aggregates again
+        table.setPage(1);
+        fakeClientCommunication();
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals("99",
+                table.footerElement.getChild(0).getChild(2).getText());
+    }
+
+    @Test
+    public void changeSinkAppliesBatches() throws Exception {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 10);
+        table.setColumns("firstName", "age");
+        List<Person> persons = IntStream.range(0, 20)
+                .mapToObj(i -> new Person(i, "first" + i, "last", i, null,
+                        "1"))
+                .collect(Collectors.toList());
+        List<Person> items = new ArrayList<>(persons);
+        table.setItems(items);
+        ui.add(table);
+        fakeClientCommunication();
+        Element firstRow = table.rows.get(0).getRowElement();
+
+        ChangeSink<Person> sink = table.createChangeSink(Duration.ofHours(1));
+        Thread feed = new Thread(() -> {
+            for (int i = 0; i < 1000; i++) {
+                Person person = persons.get(i % 3);
+                person.setAge(i);
+                sink.update(person);
+            }
+        });
+        feed.start();
+        feed.join();
+        // Updates of the same item are coalesced
+        Assert.assertEquals(3, sink.getPendingCount());
+        sink.flush();
+        fakeClientCommunication();
+        Assert.assertEquals(0, sink.getPendingCount());
+        // Rows are updated in place
+        Assert.assertSame(firstRow, table.rows.get(0).getRowElement());
+        Assert.assertEquals("999",
+                table.bodyElement.getChild(0).getChild(2).getText());
+
+        // Inserted and deleted items cause one reset, the application stores
+        // the items
+        Person inserted = new Person(100, "inserted", "last", 1, null, "1");
+        items.remove(persons.get(0));
+        items.add(inserted);
+        sink.delete(persons.get(0));
+        sink.insert(inserted);
+        sink.flush();
+        fakeClientCommunication();
+        Assert.assertEquals(20, table.getRowCount());
+        Assert.assertEquals("first1",
+                table.bodyElement.getChild(0).getChild(1).getText());
+
+        // Inserted and deleted in the same batch is never applied
+        sink.insert(new Person(101, "other", "last", 1, null, "1"));
+        sink.delete(new Person(101, "other", "last", 1, null, "1"));
+        Assert.assertEquals(0, sink.getPendingCount());
+
+        // Update after delete does not bring the deleted item back
+        items.remove(persons.get(1));
+        sink.delete(persons.get(1));
+        persons.get(1).setFirstName("updated");
+        sink.update(persons.get(1));
+        Assert.assertEquals(1, sink.getPendingCount());
+        sink.flush();
+        fakeClientCommunication();
+        Assert.assertEquals(19, table.getRowCount());
+        Assert.assertEquals("first2",
+                table.bodyElement.getChild(0).getChild(1).getText());
+
+        // Immutable data of the application is not modified
+        BeanTable<Person> immutable = new BeanTable<>(Person.class, false,
+                10);
+        immutable.setColumns("firstName");
+        immutable.setItems(List.copyOf(persons));
+        ui.add(immutable);
+        fakeClientCommunication();
+        ChangeSink<Person> immutableSink = immutable
+                .createChangeSink(Duration.ofHours(1));
+        immutableSink.delete(persons.get(2));
+        immutableSink.flush();
+        fakeClientCommunication();
+        Assert.assertEquals(20, immutable.getRowCount());
+        immutableSink.close();
+
+        ui.remove(table);
+        Assert.assertTrue(sink.isClosed());
+        sink.update(persons.get(1));
+        Assert.assertEquals(0, sink.getPendingCount());
+    }
+
+    @Test
+    public void sharedPageCache() {
+        AtomicInteger fetches = new AtomicInteger();
+        AtomicInteger sizes = new AtomicInteger();
+        List<Person> persons = IntStream.range(0, 50)
+                .mapToObj(i -> new Person(i, "first" + i, "last", 20, null,
+                        "1"))
+                .collect(Collectors.toList());
+        InMemoryPageCache cache = new InMemoryPageCache(3,
+                Duration.ofMinutes(1));
+        List<BeanTable<Person>> tables = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            // Each session has its own data provider instance
+            BeanTable<Person> table = new BeanTable<>(Person.class, false,
+                    5);
+            table.setColumns("firstName");
+            table.setItems(DataProvider.fromCallbacks(query -> {
+                fetches.incrementAndGet();
+                return persons.stream().skip(query.getOffset())
+                        .limit(query.getLimit());
+            }, query -> {
+                sizes.incrementAndGet();
+                return persons.size();
+            }));
+            table.setPageCache(cache);
+            table.setProviderId("persons");
+            ui.add(table);
+            tables.add(table);
+        }
+        fakeClientCommunication();
+
+        Assert.assertEquals(1, fetches.get());
+        Assert.assertEquals(1, sizes.get());
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals("first0",
+                tables.get(1).bodyElement.getChild(0).getChild(1).getText());
+
+        tables.get(0).setPage(1);
+        fakeClientCommunication();
+        tables.get(1).setPage(1);
+        fakeClientCommunication();
+        Assert.assertEquals(2, fetches.get());
+        Assert.assertEquals("first5",
+                tables.get(1).bodyElement.getChild(0).getChild(1).getText());
+
+        // Least recently used page is evicted
+        Assert.assertEquals(3, cache.size());
+        tables.get(0).setPage(2);
+        fakeClientCommunication();
+        Assert.assertEquals(3, cache.size());
+        tables.get(1).setPage(0);
+        fakeClientCommunication();
+        Assert.assertEquals(4, fetches.get());
+
+        // Refreshing all invalidates the results of the provider
+        tables.get(0).getGenericDataView().refreshAll();
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void singleFlightSharesInFlightQuery() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        QueryFingerprint key = QueryFingerprint.ofFetch("report",
+                new Query<>(0, 10, null, null, null));
+        List<Object> results = Collections
+                .synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    results.add(SingleFlight.execute(key, () -> {
+                        calls.incrementAndGet();
+                        release.await();
+                        return Arrays.asList("a", "b");
+                    }));
+                } catch (Exception e) {
+                    results.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+            if (i == 0) {
+                while (SingleFlight.getInFlightCount() == 0) {
+                    Thread.sleep(1);
+                }
+            }
+        }
+        Thread.sleep(50);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(5, results.size());
+        results.forEach(result -> Assert.assertEquals(Arrays.asList("a", "b"),
+                result));
+        Assert.assertEquals(0, SingleFlight.getInFlightCount());
+
+        // Equal fingerprints from different tables
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 10);
+        table.setColumns("firstName");
+        Assert.assertEquals(
+                QueryFingerprint.ofFetch("report",
+                        new ProjectionQuery<>(0, 10, Collections.emptyList(),
+                                null, null, table.getVisibleProperties())),
+                QueryFingerprint.ofFetch("report",
+                        new ProjectionQuery<>(0, 10, Collections.emptyList(),
+                                null, null, Set.of("firstName"))));
+    }
+
+    @Test
+    public void backgroundFetchUsesStateOfUiThread() {
+        AtomicInteger policyCalls = new AtomicInteger();
+        FetchPolicy policy = new FetchPolicy() {
+            @Override
+            <R> R execute(Object dataProvider, SerializableSupplier<R> fetch,
+                    boolean background) throws Exception {
+                policyCalls.incrementAndGet();
+                return super.execute(dataProvider, fetch, background);
+            }
+        };
+        List<Person> persons = IntStream.range(0, 50)
+                .mapToObj(i -> new Person(i, "first" + i, "last", 20, null,
+                        "1"))
+                .collect(Collectors.toList());
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 5);
+        table.setColumns("firstName");
+        table.setItems(DataProvider.fromCallbacks(
+                query -> persons.stream().skip(query.getOffset())
+                        .limit(query.getLimit()),
+                query -> persons.size()));
+        List<Runnable> tasks = new ArrayList<>();
+        table.setFetchExecutor(tasks::add);
+        table.setStaleWhileRevalidate(Duration.ofMinutes(1));
+        ui.add(table);
+        fakeClientCommunication();
+
+        // The policy set after the fetch was started is not used by it
+        table.setFetchPolicy(policy);
+        tasks.remove(0).run();
+        Assert.assertEquals(0, policyCalls.get());
+        Assert.assertEquals("first0",
+                table.bodyElement.getChild(0).getChild(1).getText());
+
+        table.setFetchPolicy(null);
+        table.setPage(1);
+        fakeClientCommunication();
+        tasks.remove(0).run();
+        table.setPage(0);
+        fakeClientCommunication();
+        Assert.assertTrue(table.getElement().hasAttribute("stale"));
+        table.setFetchPolicy(policy);
+        tasks.remove(0).run();
+        Assert.assertEquals(0, policyCalls.get());
+        Assert.assertFalse(table.getElement().hasAttribute("stale"));
+    }
+
+    @Test
+    public void staleWhileRevalidate() {
+        AtomicInteger fetches = new AtomicInteger();
+        AtomicBoolean failing = new AtomicBoolean();
+        List<Person> persons = IntStream.range(0, 50)
+                .mapToObj(i -> new Person(i, "first" + i, "last", 20, null,
+                        "1"))
+                .collect(Collectors.toList());
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 5);
+        table.setColumns("firstName");
+        table.setItems(DataProvider.fromCallbacks(query -> {
+            fetches.incrementAndGet();
+            if (failing.get()) {
+                throw new IllegalStateException("Back end is down");
+            }
+            return new ArrayList<>(persons).stream().skip(query.getOffset())
+                    .limit(query.getLimit());
+        }, query -> persons.size()));
+        List<Runnable> tasks = new ArrayList<>();
+        table.setFetchExecutor(tasks::add);
+        table.setStaleWhileRevalidate(Duration.ofMinutes(1));
+        ui.add(table);
+        fakeClientCommunication();
+        tasks.remove(0).run();
+        table.setPage(1);
+        fakeClientCommunication();
+        tasks.remove(0).run();
+        Assert.assertEquals(2, fetches.get());
+
+        // Cached page is rendered immediately and revalidated
+        persons.set(1, new Person(1, "changed", "last", 20, null, "1"));
+        table.setPage(0);
+        fakeClientCommunication();
+        Assert.assertEquals("first0",
+                table.bodyElement.getChild(0).getChild(1).getText());
+        Assert.assertEquals("first1",
+                table.bodyElement.getChild(1).getChild(1).getText());
+        Assert.assertTrue(table.getElement().hasAttribute("stale"));
+        Element firstRow = table.bodyElement.getChild(0);
+        Assert.assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        Assert.assertEquals(3, fetches.get());
+        Assert.assertFalse(table.getElement().hasAttribute("stale"));
+        // Only the changed row is updated
+        Assert.assertEquals(firstRow, table.bodyElement.getChild(0));
+        Assert.assertEquals("changed",
+                table.bodyElement.getChild(1).getChild(1).getText());
+
+        // Changed items render the page again
+        persons.remove(0);
+        table.setPage(1);
+        fakeClientCommunication();
+        tasks.forEach(Runnable::run);
+        tasks.clear();
+        table.setPage(0);
+        fakeClientCommunication();
+        Assert.assertEquals("first0",
+                table.bodyElement.getChild(0).getChild(1).getText());
+        tasks.remove(0).run();
+        Assert.assertEquals("changed",
+                table.bodyElement.getChild(0).getChild(1).getText());
+        Assert.assertEquals(49, table.getRowCount());
+
+        // Failed revalidation keeps the cached rows without the attribute
+        failing.set(true);
+        table.setPage(1);
+        fakeClientCommunication();
+        Assert.assertTrue(table.getElement().hasAttribute("stale"));
+        tasks.remove(0).run();
+        Assert.assertFalse(table.getElement().hasAttribute("stale"));
+        Assert.assertEquals("first6",
+                table.bodyElement.getChild(0).getChild(1).getText());
+
+        // Revalidation abandoned when detached is run again when attached
+        failing.set(false);
+        table.setPage(0);
+        fakeClientCommunication();
+        Assert.assertTrue(table.getElement().hasAttribute("stale"));
+        ui.remove(table);
+        tasks.remove(0).run();
+        Assert.assertTrue(table.getElement().hasAttribute("stale"));
+        ui.add(table);
+        Assert.assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        Assert.assertFalse(table.getElement().hasAttribute("stale"));
+    }
+
+    @Test
+    public void exportCsvAndTsv() throws Exception {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 10);
+        table.setColumns("firstName", "lastName", "age");
+        table.getColumn("lastName").get().setVisible(false);
+        table.getColumn("age").get().setSortable(true);
+        List<Person> persons = IntStream.range(0, 12000)
+                .mapToObj(i -> new Person(i, "first" + i, "last", i % 100,
+                        null, "1"))
+                .collect(Collectors.toList());
+        persons.get(0).setFirstName("Doe, \"John\"");
+        table.setItems(persons);
+        table.sort(table.getColumn("age").get(), SortDirection.DESCENDING);
+        table.getColumn("age").get().setFilterValues(Arrays.asList(0, 99));
+        ui.add(table);
+        fakeClientCommunication();
+
+        StreamResource resource = table.createExport(ExportFormat.CSV);
+        Assert.assertEquals("export.csv", resource.getName());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        table.writeExport(ExportFormat.CSV, out, ui.getSession());
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\r\n");
+        Assert.assertEquals(241, lines.length);
+        Assert.assertEquals("First Name,Age", lines[0]);
+        Assert.assertEquals("first99,99", lines[1]);
+        Assert.assertEquals("\"Doe, \"\"John\"\"\",0", lines[121]);
+
+        // Chunks of the back end
+        List<Query<Person, Void>> queries = new ArrayList<>();
+        table.setItems(DataProvider.fromCallbacks(query -> {
+            queries.add(query);
+            return persons.stream().skip(query.getOffset())
+                    .limit(query.getLimit());
+        }, query -> persons.size()));
+        fakeClientCommunication();
+        queries.clear();
+        out = new ByteArrayOutputStream();
+        table.writeExport(ExportFormat.TSV, out, ui.getSession());
+        lines = out.toString(StandardCharsets.UTF_8).split("\r\n");
+        Assert.assertEquals(12001, lines.length);
+        Assert.assertEquals("first11999\t99", lines[12000]);
+        Assert.assertEquals(3, queries.size());
+        Assert.assertEquals(10000, queries.get(2).getOffset());
+
+        // Changing the sorting during the export does not affect the chunks
+        List<Query<Person, Void>> chunks = new ArrayList<>();
+        table.setItems(DataProvider.fromCallbacks(query -> {
+            if (query.getLimit() == 5000) {
+                chunks.add(query);
+                if (chunks.size() == 1) {
+                    table.sort(table.getColumn("age").get(),
+                            SortDirection.ASCENDING);
+                }
+            }
+            return persons.stream().skip(query.getOffset())
+                    .limit(query.getLimit());
+        }, query -> persons.size()));
+        fakeClientCommunication();
+        table.writeExport(ExportFormat.CSV, new ByteArrayOutputStream(),
+                ui.getSession());
+        Assert.assertEquals(3, chunks.size());
+        chunks.forEach(query -> {
+            Assert.assertEquals(1, query.getSortOrders().size());
+            Assert.assertEquals(SortDirection.DESCENDING,
+                    query.getSortOrders().get(0).getDirection());
+        });
+    }
+
+    @Test
+    public void columnStatistics() throws Exception {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 10);
+        table.setColumns("age", "phoneNumber");
+        List<Person> persons = IntStream.range(0, 20000)
+                .mapToObj(i -> new Person(i, "first" + i, "last", i % 1000,
+                        null, i % 4 == 0 ? null : "phone" + (i % 50)))
+                .collect(Collectors.toList());
+        table.setItems(persons);
+        ui.add(table);
+        fakeClientCommunication();
+
+        ColumnStatistics age = table
+                .computeStatistics(table.getColumn("age").get(), Runnable::run)
+                .get();
+        Assert.assertEquals(20000, age.getCount());
+        Assert.assertEquals(0, age.getNullCount());
+        Assert.assertTrue(Math.abs(age.getDistinctCount() - 1000) < 50);
+        Assert.assertEquals(0, age.getMin());
+        Assert.assertEquals(999, age.getMax());
+        Assert.assertTrue(Math.abs(age.getQuantile(0.5) - 500) < 30);
+        Assert.assertTrue(Math.abs(age.getQuantile(0.9) - 900) < 30);
+
+        // Filters are applied
+        table.getColumn("age").get().setFilterValues(Arrays.asList(1, 2, 3));
+        ColumnStatistics phone = table
+                .computeStatistics(table.getColumn("phoneNumber").get(),
+                        Runnable::run)
+                .get();
+        Assert.assertEquals(60, phone.getCount());
+        Assert.assertEquals(0.0, phone.getNullRatio(), 0.001);
+        Assert.assertEquals(3, phone.getDistinctCount());
+        Assert.assertNull(phone.getQuantile(0.5));
+
+        // Back end data is fetched in chunks
+        List<Query> queries = new ArrayList<>();
+        table.setItems(DataProvider.fromCallbacks(query -> {
+            queries.add(query);
+            return persons.stream().skip(query.getOffset())
+                    .limit(query.getLimit());
+        }, query -> persons.size()));
+        fakeClientCommunication();
+        queries.clear();
+        age = table
+                .computeStatistics(table.getColumn("age").get(), Runnable::run)
+                .get();
+        Assert.assertEquals(20000, age.getCount());
+        Assert.assertEquals(999, age.getMax());
+        Assert.assertEquals(5, queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            Assert.assertEquals(i * 5000, queries.get(i).getOffset());
+            Assert.assertEquals(5000, queries.get(i).getLimit());
+        }
+    }
+
+    @Test
+    public void compactModeKeepsOnlyIds() {
+        AtomicInteger fetches = new AtomicInteger();
+        List<Collection<Object>> lookups = new ArrayList<>();
+        List<Person> persons = IntStream.range(0, 20)
+                .mapToObj(i -> new Person(i, "first" + i, "last", 20, null,
+                        "1"))
+                .collect(Collectors.toList());
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 5);
+        table.setColumns("firstName");
+        table.setItems(new LookupPersonProvider(persons, lookups) {
+            @Override
+            protected Stream<Person> fetchFromBackEnd(
+                    Query<Person, Void> query) {
+                fetches.incrementAndGet();
+                return super.fetchFromBackEnd(query);
+            }
+        });
+        table.setCompactMode(true);
+        table.setSelectionEnabled(true);
+        List<RowMemoryEstimateEvent<BeanTable<Person>>> events = new ArrayList<>();
+        table.addRowMemoryEstimateListener(events::add);
+        ui.add(table);
+        fakeClientCommunication();
+        Assert.assertEquals(1, fetches.get());
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(0, events.get(0).getRetainedItemCount());
+
+        // Released items are fetched once per request
+        Assert.assertEquals("first2",
+                table.rows.get(2).getItem().getFirstName());
+        Assert.assertEquals("first3",
+                table.rows.get(3).getItem().getFirstName());
+        Assert.assertEquals(2, fetches.get());
+        fakeClientCommunication();
+        Assert.assertEquals("first3",
+                table.rows.get(3).getItem().getFirstName());
+        Assert.assertEquals(3, fetches.get());
+        fakeClientCommunication();
+
+        // Selection is kept as ids and resolved when needed
+        List<BeanTableSelectionChangedEvent<Person, BeanTable<Person>>> selections = new ArrayList<>();
+        table.addSelectionChangedListener(selections::add);
+        table.rows.get(1).toggleSelection();
+        Assert.assertEquals(Set.of(1), selections.get(0).getSelectedIds());
+        Assert.assertEquals(3, fetches.get());
+        Assert.assertEquals(Set.of(persons.get(1)),
+                selections.get(0).getSelected());
+        Assert.assertTrue(table.bodyElement.getChild(1).getThemeList()
+                .contains("selected"));
+        table.select(persons.get(7));
+        fakeClientCommunication();
+        Assert.assertEquals(Set.of(persons.get(1), persons.get(7)),
+                table.getSelected());
+        // Only the item not on the rendered page is looked up by id
+        Assert.assertEquals(List.of(List.of(7)), lookups);
+
+        // Rows are refreshed by id
+        table.getDataProvider().refreshItem(
+                new Person(2, "changed", "last", 20, null, "1"));
+        Assert.assertEquals("changed",
+                table.bodyElement.getChild(2).getChild(1).getText());
+
+        // Selection is kept when paged away
+        table.setPage(3);
+        fakeClientCommunication();
+        Assert.assertEquals(Set.of(persons.get(1), persons.get(7)),
+                table.getSelected());
+        table.setPage(0);
+        fakeClientCommunication();
+
+        table.setCompactMode(false);
+        Assert.assertEquals(Set.of(persons.get(1), persons.get(7)),
+                table.getSelected());
+        table.deselectAll();
+        table.setPage(1);
+        fakeClientCommunication();
+        Assert.assertEquals(5, events.get(events.size() - 1)
+                .getRetainedItemCount());
+    }
+
+    @Test
+    public void compactModeNeedsLookupById() {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 5);
+        table.setColumns("firstName");
+        List<Person> persons = IntStream.range(0, 20)
+                .mapToObj(i -> new Person(i, "first" + i, "last", 20, null,
+                        "1"))
+                .collect(Collectors.toList());
+        table.setItems(persons);
+        table.setCompactMode(true);
+        table.setSelectionEnabled(true);
+        ui.add(table);
+        fakeClientCommunication();
+        table.select(persons.get(12));
+        Assert.assertEquals(Set.of(persons.get(12)), table.getSelected());
+
+        try {
+            table.setItems(DataProvider.fromCallbacks(
+                    query -> persons.stream().skip(query.getOffset())
+                            .limit(query.getLimit()),
+                    query -> persons.size()));
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Back end data provider without ItemLookupDataProvider
+        }
+        BeanTable<Person> backEnd = new BeanTable<>(Person.class, false, 5);
+        backEnd.setItems(DataProvider.fromCallbacks(
+                query -> persons.stream().skip(query.getOffset())
+                        .limit(query.getLimit()),
+                query -> persons.size()));
+        try {
+            backEnd.setCompactMode(true);
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            Assert.assertFalse(backEnd.isCompactMode());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void serializationWritesIdsInsteadOfItems() throws Exception {
+        BeanTable<Person> table = new BeanTable<>(Person.class, false, 10);
+        table.setColumns("firstName");
+        table.setItems(new GeneratedPersonProvider(100));
+        table.setSelectionEnabled(true);
+        ui.add(table);
+        fakeClientCommunication();
+        table.select(new Person(3, "first3", "last", 3, null, "1"),
+                new Person(42, "first42", "last", 42, null, "1"));
+        ui.remove(table);
+
+        // Person is not serializable, only the ids are written
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new ObjectOutputStream(bytes).writeObject(table);
+        BeanTable<Person> copy = (BeanTable<Person>) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        Assert.assertEquals(10, copy.rows.size());
+        Assert.assertEquals("first5",
+                copy.bodyElement.getChild(5).getChild(1).getText());
+        Assert.assertEquals("first5",
+                copy.rows.get(5).getItem().getFirstName());
+        Assert.assertTrue(copy.bodyElement.getChild(3).getThemeList()
+                .contains("selected"));
+        Assert.assertEquals(Set.of(3, 42), copy.getSelected().stream()
+                .map(Person::getId).collect(Collectors.toSet()));
+
+        // Row events are handled by the listeners of the body
+        List<Person> clicked = new ArrayList<>();
+        copy.addItemClickedListener(event -> clicked.add(event.getItem()));
+        fireRowEvent(copy, "click", 5, "event.detail == 1");
+        fireRowEvent(copy, "click", -1, "event.detail == 1");
+        Assert.assertEquals(List.of(5),
+                clicked.stream().map(Person::getId)
+                        .collect(Collectors.toList()));
+        Assert.assertTrue(copy.bodyElement.getChild(5).getThemeList()
+                .contains("selected"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void serializationKeepsSelectionNotOnPage() throws Exception {
+        BeanTable<SerializationBenchmark.Item> table = new BeanTable<>(
+                SerializationBenchmark.Item.class, false, 10);
+        table.setColumns("name");
+        // The data provider can't fetch the items by id
+        table.setItems(new SerializationBenchmark.ItemProvider());
+        table.setSelectionEnabled(true);
+        ui.add(table);
+        fakeClientCommunication();
+        table.select(SerializationBenchmark.Item.create(3),
+                SerializationBenchmark.Item.create(42));
+        ui.remove(table);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new ObjectOutputStream(bytes).writeObject(table);
+        BeanTable<SerializationBenchmark.Item> copy = (BeanTable<SerializationBenchmark.Item>) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        Assert.assertEquals(Set.of(3, 42), copy.getSelected().stream()
+                .map(SerializationBenchmark.Item::getId)
+                .collect(Collectors.toSet()));
+        Assert.assertTrue(copy.bodyElement.getChild(3).getThemeList()
+                .contains("selected"));
+    }
+
+    private void fireRowEvent(BeanTable<?> table, String type, int index,
+            String filter) {
+        JsonObject data = Json.createObject();
+        data.put(BeanTable.ROW_INDEX, index);
+        data.put(filter, true);
+        table.bodyElement.getNode().getFeature(ElementListenerMap.class)
+                .fireEvent(new DomEvent(table.bodyElement, type, data));
+    }
+
+    public static class LookupPersonProvider
+            extends AbstractBackEndDataProvider<Person, Void>
+            implements ItemLookupDataProvider<Person, Void> {
+        private final List<Person> persons;
+        private final List<Collection<Object>> lookups;
+
+        public LookupPersonProvider(List<Person> persons,
+                List<Collection<Object>> lookups) {
+            this.persons = persons;
+            this.lookups = lookups;
+        }
+
+        @Override
+        public Object getId(Person item) {
+            return item.getId();
+        }
+
+        @Override
+        public Stream<Person> fetchByIds(Collection<Object> ids) {
+            lookups.add(ids);
+            return persons.stream()
+                    .filter(person -> ids.contains(person.getId()));
+        }
+
+        @Override
+        protected Stream<Person> fetchFromBackEnd(Query<Person, Void> query) {
+            return new ArrayList<>(persons).stream().skip(query.getOffset())
+                    .limit(query.getLimit());
+        }
+
+        @Override
+        protected int sizeInBackEnd(Query<Person, Void> query) {
+            return persons.size();
+        }
+    }
+
+    public static class GeneratedPersonProvider
+            extends AbstractBackEndDataProvider<Person, Void>
+            implements ItemLookupDataProvider<Person, Void> {
+        private final int size;
+
+        public GeneratedPersonProvider(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public Object getId(Person item) {
+            return item.getId();
+        }
+
+        @Override
+        public Stream<Person> fetchByIds(Collection<Object> ids) {
+            return ids.stream().map(id -> (Integer) id)
+                    .filter(id -> id < size).map(id -> new Person(id,
+                            "first" + id, "last", id, null, "1"));
+        }
+
+        @Override
+        protected Stream<Person> fetchFromBackEnd(Query<Person, Void> query) {
+            return IntStream.range(0, size)
+                    .mapToObj(i -> new Person(i, "first" + i, "last", i, null,
+                            "1"))
+                    .skip(query.getOffset()).limit(query.getLimit());
+        }
+
+        @Override
+        protected int sizeInBackEnd(Query<Person, Void> query) {
+            return size;
+        }
+    }
+
+    public static class AggregatePersonProvider
+            extends AbstractBackEndDataProvider<Person, Void>
+            implements AggregateDataProvider<Person, Void> {
+        private List<Map<String, AggregateFunction>> requests;
+
+        public AggregatePersonProvider(
+                List<Map<String, AggregateFunction>> requests) {
+            this.requests = requests;
+        }
+
+        @Override
+        public Map<String, Number> fetchAggregates(Query<Person, Void> query,
+                Map<String, AggregateFunction> aggregates) {
+            requests.add(aggregates);
+            return Map.of("age", 99);
+        }
+
+        @Override
+        protected Stream<Person> fetchFromBackEnd(Query<Person, Void> query) {
+            return IntStream.range(0, 100)
+                    .mapToObj(i -> new Person(i, "first" + i, "last", i, null,
+                            "1"))
+                    .skip(query.getOffset()).limit(query.getLimit());
+        }
+
+        @Override
+        protected int sizeInBackEnd(Query<Person, Void> query) {
+            return 100;
+        }
+    }
+
+    private void assertSelectedThemeSet(BeanTable<DataItem> table,
+            int... items) {
+        for (int item : items) {
+            Element row = table.bodyElement.getChild(item);
+            Assert.assertEquals("item at index " + item + " should be selected",
+                    "selected", row.getAttribute("theme"));
+            for (int i = 1; i < row.getChildCount(); i++) {
+                Assert.assertEquals("true",
+                        row.getChild(i).getAttribute("aria-selected"));
+            }
+        }
+    }
+
+    private void assertSelectedThemeNotSet(BeanTable<DataItem> table,
+            int... items) {
+        for (int item : items) {
+            Element row = table.bodyElement.getChild(item);
+            Assert.assertEquals(
+                    "item at index " + item + " should not be selected", null,
+                    row.getAttribute("theme"));
+            for (int i = 1; i < row.getChildCount(); i++) {
+                Assert.assertEquals("false",
+                        row.getChild(i).getAttribute("aria-selected"));
+            }
+        }
+    }
+
+    public class TestItem {
+        private UUID id = UUID.randomUUID();
+        private String data;
+
+        public TestItem(String data) {
+            this.setData(data);
+        }
+
+        public String getData() {
+            return data;
+        }
+
+        public void setData(String data) {
+            this.data = data;
+        }
+
+        public UUID getId() {
+            return id;
+        }
+
+        public void setId(UUID id) {
+            this.id = id;
+        }
+    }
+
+    public class DataItem {
+        private String name;
+        private String data;
+
+        public DataItem(String name, String data) {
+            this.name = name;
+            this.data = data;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getData() {
+            return data;
+        }
+
+        public void setData(String data) {
+            this.data = data;
+        }
+    }
+
+    public class FaultyDataService {
+        FaultyDataRepository repository = new FaultyDataRepository();
+
+        public Stream<DataItem> fetchPersons() {
+            return repository.fetch().stream();
+        }
+    }
+
+    public class FaultyDataRepository {
+        public List<DataItem> fetch() {
+            return null;
+        }
+    }
+
+    public static class KeysetPersonProvider
+            extends AbstractBackEndDataProvider<Person, Void>
+            implements KeysetDataProvider<Person, Void, Integer> {
+        private List<Person> persons = new PersonData().getPersons();
+        int offsetFetches;
+        int keysetFetches;
+
+        @Override
+        public Integer getKey(Person item) {
+            return item.getId();
+        }
+
+        @Override
+        public Stream<Person> fetchAfter(Query<Person, Void> query,
+                Integer key) {
+            keysetFetches++;
+            return persons.stream().filter(person -> person.getId() > key)
+                    .limit(query.getLimit());
+        }
+
+        @Override
+        public Stream<Person> fetchBefore(Query<Person, Void> query,
+                Integer key) {
+            keysetFetches++;
+            List<Person> before = persons.stream()
+                    .filter(person -> person.getId() < key)
+                    .collect(Collectors.toList());
+            return before.stream().skip(
+                    Math.max(0, before.size() - query.getLimit()));
+        }
+
+        @Override
+        protected Stream<Person> fetchFromBackEnd(Query<Person, Void> query) {
+            offsetFetches++;
+            return persons.stream().skip(query.getOffset())
+                    .limit(query.getLimit());
+        }
+
+        @Override
+        protected int sizeInBackEnd(Query<Person, Void> query) {
+            return persons.size();
+        }
+    }
+
+    record DataRecord(String name, String data) {
+    }
+
+    private void fakeClientCommunication() {
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        ui.getInternals().getStateTree().collectChanges(ignore -> {
+        });
+    }
+
+    public static class MockUI extends UI {
+
+        public MockUI() {
+            this(findOrcreateSession());
+        }
+
+        public MockUI(VaadinSession session) {
+            getInternals().setSession(session);
+            setCurrent(this);
+        }
+
+        @Override
+        protected void init(VaadinRequest request) {
+            // Do nothing
+        }
+
+        // The session is always locked, run the command immediately
+        @Override
+        public Future<Void> access(Command command) {
+            command.execute();
+            return CompletableFuture.completedFuture(null);
         }
 
         private static VaadinSession findOrcreateSession() {
@@ -8,6 +8,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
 
+import org.vaadin.tatu.BeanTable.AggregateFunction;
 import org.vaadin.tatu.BeanTable.ColumnSelectMenu;
 
 import com.vaadin.flow.component.html.Div;
@@ -35,7 +36,8 @@ public class BigTable extends Div {
             table.addColumn("C" + index, map -> map.get("col" + index))
                     .setWidth("40px");
         }
-        table.addColumn("Sum", map -> map.get("sum"));
+        table.addColumn("Sum", map -> map.get("sum"))
+                .setAggregate(AggregateFunction.SUM);
 
         table.setItems(dataProvider);
         table.setColumnSelectionMenu(ColumnSelectMenu.CONTEXT);
@@ -102,7 +102,7 @@ public class LazyView extends VerticalLayout {
 
         Button select = new Button("Select 10,12");
         select.addClickListener(e -> {
-            table.select(dataView.getItem(10), dataView.getItem(12));
+            table.select(dataView.getItems(10, 12).toArray(new Person[0]));
         });
 
         HorizontalLayout tools = new HorizontalLayout();
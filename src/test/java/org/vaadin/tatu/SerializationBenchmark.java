@@ -0,0 +1,184 @@
+package org.vaadin.tatu;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.vaadin.tatu.BeanTableTest.MockUI;
+
+import com.vaadin.flow.data.provider.AbstractBackEndDataProvider;
+import com.vaadin.flow.data.provider.Query;
+
+/**
+ * Measures the serialized size and the serialization time of a rendered
+ * BeanTable, e.g. for estimating the cost of session replication. Run the
+ * main method with the test class path. The numbers are per table, the UI
+ * holding the tables is serialized as in session replication.
+ */
+public class SerializationBenchmark {
+
+    private static final int TABLES = 20;
+    private static final int ROUNDS = 10;
+    private static final int PAGE_LENGTH = 50;
+    private static final int ITEMS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        List<Item> items = IntStream.range(0, ITEMS).mapToObj(Item::create)
+                .collect(Collectors.toList());
+        System.out.println(String.format("%-26s %12s %12s %12s",
+                "Configuration", "Bytes", "Write us", "Read us"));
+        run("List data provider", table -> table.setItems(items));
+        run("Back end data provider",
+                table -> table.setItems(new ItemProvider()));
+        run("Back end, compact mode", table -> {
+            table.setItems(new LookupItemProvider());
+            table.setCompactMode(true);
+        });
+    }
+
+    private static void run(String name, Consumer<BeanTable<Item>> setup)
+            throws Exception {
+        // The tables are serialized with the UI as in session replication,
+        // the size of an empty UI is subtracted
+        long[] empty = measure(new MockUI());
+        MockUI ui = new MockUI();
+        for (int i = 0; i < TABLES; i++) {
+            BeanTable<Item> table = new BeanTable<>(Item.class, false,
+                    PAGE_LENGTH);
+            table.setColumns("id", "name", "email", "value");
+            table.setSelectionEnabled(true);
+            setup.accept(table);
+            ui.add(table);
+            table.select(Item.create(1), Item.create(2), Item.create(3));
+        }
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        ui.getInternals().getStateTree().collectChanges(ignore -> {
+        });
+        long[] result = measure(ui);
+        System.out.println(String.format("%-26s %12d %12d %12d", name,
+                (result[0] - empty[0]) / TABLES,
+                (result[1] - empty[1]) / TABLES / 1000,
+                (result[2] - empty[2]) / TABLES / 1000));
+    }
+
+    // Average serialized bytes, write and read nanoseconds, the first round
+    // is a warm up
+    private static long[] measure(Object object) throws Exception {
+        long bytes = 0;
+        long writeNanos = 0;
+        long readNanos = 0;
+        for (int round = 0; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            byte[] data = serialize(object);
+            long written = System.nanoTime();
+            deserialize(data);
+            long read = System.nanoTime();
+            if (round > 0) {
+                bytes += data.length;
+                writeNanos += written - start;
+                readNanos += read - written;
+            }
+        }
+        return new long[] { bytes / ROUNDS, writeNanos / ROUNDS,
+                readNanos / ROUNDS };
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] data)
+            throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(data))) {
+            return in.readObject();
+        }
+    }
+
+    public static class Item implements Serializable {
+        private int id;
+        private String name;
+        private String email;
+        private int value;
+
+        static Item create(int id) {
+            Item item = new Item();
+            item.id = id;
+            item.name = "Name " + id;
+            item.email = "name" + id + "@example.com";
+            item.value = id % 100;
+            return item;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public int getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Item other && other.id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+    }
+
+    // Items are generated on the fly, the provider itself holds no data
+    public static class ItemProvider
+            extends AbstractBackEndDataProvider<Item, Void> {
+
+        @Override
+        public Object getId(Item item) {
+            return item.getId();
+        }
+
+        @Override
+        protected Stream<Item> fetchFromBackEnd(Query<Item, Void> query) {
+            return IntStream.range(query.getOffset(),
+                    Math.min(ITEMS, query.getOffset() + query.getLimit()))
+                    .mapToObj(Item::create);
+        }
+
+        @Override
+        protected int sizeInBackEnd(Query<Item, Void> query) {
+            return ITEMS;
+        }
+    }
+
+    // Compact mode needs fetching the items by id
+    public static class LookupItemProvider extends ItemProvider
+            implements ItemLookupDataProvider<Item, Void> {
+
+        @Override
+        public Stream<Item> fetchByIds(Collection<Object> ids) {
+            return ids.stream().map(id -> Item.create((Integer) id));
+        }
+    }
+}